@@ -0,0 +1,132 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the {@link JFRParser} on recordings of the {@link SyntheticWorkload}, the parsed events
+ * per second are reported as the "events" counter
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    /**
+     * Duration of the recorded workload in seconds
+     */
+    @Param({"2", "10"})
+    public int seconds;
+
+    /**
+     * Number of chunks of the recording, which the parser parses in parallel
+     */
+    @Param({"1", "8"})
+    public int chunks;
+
+    private Path recording;
+    private Path archive;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Events {
+        public long events;
+    }
+
+    /**
+     * Record the synthetic workload in this JVM, with the CPU time sampler (if the JDK has it) and the standard samplers
+     */
+    @Setup(Level.Trial)
+    public void record() throws IOException, ParseException, InterruptedException {
+        recording = Files.createTempFile("parser-benchmark", ".jfr");
+        try (var r = new Recording(SamplerOverheadBenchmark.settings(Main.Sampler.WITH_OTHER_SAMPLER, Main.SamplingPeriod.DEFAULT))) {
+            r.start();
+            long endNanos = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                var thread = new Thread(() -> SyntheticWorkload.work(endNanos));
+                thread.start();
+                threads.add(thread);
+            }
+            for (var thread : threads) {
+                thread.join();
+            }
+            r.stop();
+            r.dump(recording);
+        }
+        if (chunks > 1) {
+            // a recording file may consist of any number of chunks, so concatenate copies of the recording
+            byte[] bytes = Files.readAllBytes(recording);
+            try (var out = Files.newOutputStream(recording)) {
+                for (int i = 0; i < chunks; i++) {
+                    out.write(bytes);
+                }
+            }
+        }
+        archive = Files.createTempFile("parser-benchmark", Archive.EXTENSION);
+        try (var writer = new Archive.Writer(archive)) {
+            writer.add(recording);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(recording);
+        Files.deleteIfExists(archive);
+    }
+
+    @Benchmark
+    public long parse(Events events) {
+        var counts = new JFRParser().parse(recording);
+        events.events += counts.events;
+        return counts.events;
+    }
+
+    @Benchmark
+    public long parseAll(Events events) {
+        var counts = new JFRParser().parseAll(List.of(recording));
+        events.events += counts.events;
+        return counts.events;
+    }
+
+    @Benchmark
+    public long parseAllWithStacks(Events events) {
+        var counts = new JFRParser(IterationTimes.Intervals.NONE, true, null).parseAll(List.of(recording));
+        events.events += counts.events;
+        return counts.events;
+    }
+
+    /**
+     * Reading the archive of the recording, which yields the same counts as {@link #parseAllWithStacks(Events)}
+     */
+    @Benchmark
+    public long readArchive(Events events) throws IOException {
+        var counts = Archive.read(archive, new JFRParser(IterationTimes.Intervals.NONE, true, null));
+        events.events += counts.events;
+        return counts.events;
+    }
+}
@@ -0,0 +1,132 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Micro workloads run under every {@link Main.Sampler} config (and without JFR), to measure the per-sample overhead
+ * of the samplers. Every sampler runs in its own fork, so compare the scores of the same workload across samplers,
+ * and across JDK builds with JMH's -jvm option.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+@State(Scope.Benchmark)
+public class SamplerOverheadBenchmark {
+
+    @Param({"NONE", "CPU_ONLY", "OTHER_SAMPLER", "WITH_OTHER_SAMPLER", "FULL_PROFILE"})
+    public String sampler;
+
+    /**
+     * Sampling period or rate of the samplers, see {@link Main.SamplingPeriod}
+     */
+    @Param({"1ms"})
+    public String samplingPeriod;
+
+    private Recording recording;
+
+    /**
+     * The event settings of the sampler config, like the recording started by -XX:StartFlightRecording would have
+     */
+    static Map<String, String> settings(Main.Sampler sampler, Main.SamplingPeriod period) throws IOException, ParseException {
+        String configuration = "default";
+        Map<String, String> overrides = new HashMap<>();
+        for (String option : sampler.config(period).split(",")) {
+            String[] keyValue = option.split("=", 2);
+            if (keyValue[0].equals("settings")) {
+                configuration = keyValue[1].replaceAll("\\.jfc$", "");
+            } else {
+                overrides.put(keyValue[0], keyValue[1]);
+            }
+        }
+        Map<String, String> settings = new HashMap<>(Configuration.getConfiguration(configuration).getSettings());
+        settings.putAll(overrides);
+        return settings;
+    }
+
+    @Setup(Level.Trial)
+    public void startRecording() throws IOException, ParseException {
+        if (!sampler.equals("NONE")) {
+            recording = new Recording(settings(Main.Sampler.valueOf(sampler), new Main.SamplingPeriod(samplingPeriod)));
+            recording.setToDisk(true);
+            recording.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopRecording() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Compression {
+        Deflater deflater;
+        byte[] out;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            out = new byte[64 * 1024];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            deflater.end();
+        }
+    }
+
+    @Benchmark
+    public long tightLoop() {
+        return SyntheticWorkload.javaKernel(0);
+    }
+
+    @Benchmark
+    public long deepRecursion() {
+        return SyntheticWorkload.javaKernel(512);
+    }
+
+    @Benchmark
+    public long allocation() {
+        long result = 0;
+        for (int i = 0; i < 1_000; i++) {
+            byte[] bytes = new byte[128 + i % 1024];
+            bytes[i % bytes.length] = (byte) i;
+            result += bytes.length + bytes[i % bytes.length];
+        }
+        return result;
+    }
+
+    @Benchmark
+    public long nativeCall(Compression compression) {
+        return SyntheticWorkload.nativeKernel(compression.deflater, compression.out);
+    }
+
+    @Benchmark
+    public long nativeTransitions(Compression compression) {
+        return SyntheticWorkload.transitionKernel(compression.deflater, compression.out);
+    }
+}
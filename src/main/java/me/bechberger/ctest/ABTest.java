@@ -0,0 +1,126 @@
+package me.bechberger.ctest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+/**
+ * Comparison of two JDK builds (a and b) on the interleaved runs of the same configs
+ */
+class ABTest {
+
+    private ABTest() {
+    }
+
+    /**
+     * A compared property of the completed runs
+     *
+     * @param higherIsWorse whether a higher value of b is a regression
+     */
+    record Metric(String name, ToDoubleFunction<BenchmarkRunner.Result> value, boolean higherIsWorse) {
+    }
+
+    static final List<Metric> METRICS = List.of(
+            new Metric("valid rate", r -> rate(r.counts().validCpuTimeEvents, r.counts()), false),
+            new Metric("loss rate", r -> rate(r.counts().overflowedCpuTimeEvents, r.counts()), true),
+            new Metric("duration ms", r -> r.durationMillis(), true));
+
+    /**
+     * Fraction of the CPU time samples the sampler tried to take, NaN for runs without any
+     */
+    private static double rate(int events, JFRParser.Counts counts) {
+        long all = (long) counts.validCpuTimeEvents + counts.overflowedCpuTimeEvents + counts.emptyCpuTimeEvents;
+        return all == 0 ? Double.NaN : (double) events / all;
+    }
+
+    /**
+     * Collects the runs of a config on both JDKs
+     */
+    static class Comparison {
+        private final Main.OptionSet options;
+        private final String javaA;
+        private final String javaB;
+        private final double alpha;
+        private final List<BenchmarkRunner.Result> a = new ArrayList<>();
+        private final List<BenchmarkRunner.Result> b = new ArrayList<>();
+
+        /**
+         * @param alpha significance level of the tests
+         */
+        Comparison(Main.OptionSet options, String javaA, String javaB, double alpha) {
+            this.options = options;
+            this.javaA = javaA;
+            this.javaB = javaB;
+            this.alpha = alpha;
+        }
+
+        void add(boolean isB, BenchmarkRunner.Result result) {
+            (isB ? b : a).add(result);
+        }
+
+        /**
+         * Runs that went through, crashed, hung or aborted runs don't have meaningful rates and durations
+         */
+        private static boolean completed(BenchmarkRunner.Result result) {
+            return !result.error() && !result.aborted() && !result.hang() && !result.crash();
+        }
+
+        private static double[] values(List<BenchmarkRunner.Result> results, Metric metric) {
+            return results.stream().filter(Comparison::completed).mapToDouble(metric.value())
+                    .filter(v -> !Double.isNaN(v)).toArray();
+        }
+
+        private static int crashes(List<BenchmarkRunner.Result> results) {
+            return (int) results.stream().filter(BenchmarkRunner.Result::crash).count();
+        }
+
+        /**
+         * One row per metric: the means of a and b, the absolute and relative difference of b, the p-value of Welch's t-test
+         * with Hedges' g as effect size, and the crash rates with Fisher's exact test and their difference
+         * as effect size
+         */
+        List<List<String>> toCSV() {
+            List<List<String>> rows = new ArrayList<>();
+            for (var metric : METRICS) {
+                double[] valuesA = values(a, metric);
+                double[] valuesB = values(b, metric);
+                if (valuesA.length == 0 && valuesB.length == 0) {
+                    continue;
+                }
+                double meanA = Statistics.mean(valuesA);
+                double meanB = Statistics.mean(valuesB);
+                double p = valuesA.length < 2 || valuesB.length < 2 ? Double.NaN : Statistics.welch(valuesB, valuesA).pValue();
+                rows.add(row(metric.name(), valuesA.length, valuesB.length, meanA, meanB, p,
+                        Statistics.hedgesG(valuesB, valuesA), metric.higherIsWorse()));
+            }
+            int crashesA = crashes(a);
+            int crashesB = crashes(b);
+            double crashRateA = a.isEmpty() ? Double.NaN : (double) crashesA / a.size();
+            double crashRateB = b.isEmpty() ? Double.NaN : (double) crashesB / b.size();
+            rows.add(row("crash rate", a.size(), b.size(), crashRateA, crashRateB,
+                    Statistics.fisherExact(crashesA, a.size(), crashesB, b.size()), crashRateB - crashRateA, true));
+            return rows;
+        }
+
+        private List<String> row(String metric, int runsA, int runsB, double meanA, double meanB, double p,
+                                 double effectSize, boolean higherIsWorse) {
+            // NaN p-values (too few runs or no variance) are never significant
+            boolean significant = p < alpha;
+            boolean regression = significant && (higherIsWorse ? meanB > meanA : meanB < meanA);
+            // rates of 0 are common for a, there is no relative difference to them
+            String relativeDifference = meanA == 0 || Double.isNaN(meanA) ? "" : String.valueOf((meanB - meanA) / meanA * 100);
+            List<String> row = new ArrayList<>(options.toCSV());
+            row.addAll(Stream.of(javaA, javaB, metric, runsA, runsB, meanA, meanB, meanB - meanA, relativeDifference, p,
+                    effectSize, significant, regression).map(Object::toString).toList());
+            return row;
+        }
+
+        static List<String> toCSVHeader() {
+            List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
+            csv.addAll(List.of("java a", "java b", "metric", "runs a", "runs b", "mean a", "mean b", "difference", "difference %",
+                    "p-value", "effect size", "significant", "regression"));
+            return csv;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package me.bechberger.ctest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Picks the next config to run with Thompson sampling, so that configs that fail more often get more runs
+ * <p>
+ * Every config is a bandit arm whose reward is a failed run (error, aborted or unreasonable result),
+ * with a Beta(failures + 1, successes + 1) posterior. With the exploration rate a config is picked
+ * uniformly at random instead, so that configs that never failed so far are still tested.
+ */
+class AdaptiveScheduler {
+
+    private final List<Main.OptionSet> optionSets;
+    private final Map<Main.OptionSet, Integer> indices = new HashMap<>();
+    private final double explorationRate;
+    private final long[] runs;
+    private final long[] failures;
+    private final Random random = new Random();
+
+    AdaptiveScheduler(List<Main.OptionSet> optionSets, double explorationRate) {
+        this.optionSets = optionSets;
+        this.explorationRate = explorationRate;
+        this.runs = new long[optionSets.size()];
+        this.failures = new long[optionSets.size()];
+        for (int i = 0; i < optionSets.size(); i++) {
+            indices.put(optionSets.get(i), i);
+        }
+    }
+
+    /**
+     * Take earlier results into account, e.g. from the result store
+     */
+    synchronized void seed(Main.OptionSet options, long runs, long failures) {
+        int index = indices.get(options);
+        this.runs[index] += runs;
+        this.failures[index] += failures;
+    }
+
+    synchronized Main.OptionSet next() {
+        if (random.nextDouble() < explorationRate) {
+            return optionSets.get(random.nextInt(optionSets.size()));
+        }
+        int best = 0;
+        double bestSample = -1;
+        for (int i = 0; i < optionSets.size(); i++) {
+            double sample = sampleBeta(failures[i] + 1, runs[i] - failures[i] + 1);
+            if (sample > bestSample) {
+                best = i;
+                bestSample = sample;
+            }
+        }
+        return optionSets.get(best);
+    }
+
+    synchronized void record(Main.OptionSet options, boolean failed) {
+        int index = indices.get(options);
+        runs[index]++;
+        if (failed) {
+            failures[index]++;
+        }
+    }
+
+    synchronized String summary(Main.OptionSet options) {
+        int index = indices.get(options);
+        return failures[index] + "/" + runs[index] + " failed";
+    }
+
+    private double sampleBeta(double alpha, double beta) {
+        double x = sampleGamma(alpha);
+        double y = sampleGamma(beta);
+        return x / (x + y);
+    }
+
+    /**
+     * Marsaglia and Tsang's method, for shape >= 1 (which is always the case for the posteriors)
+     */
+    private double sampleGamma(double shape) {
+        double d = shape - 1.0 / 3;
+        double c = 1 / Math.sqrt(9 * d);
+        while (true) {
+            double x;
+            double v;
+            do {
+                x = random.nextGaussian();
+                v = 1 + c * x;
+            } while (v <= 0);
+            v = v * v * v;
+            double u = random.nextDouble();
+            if (u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v))) {
+                return d * v;
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import picocli.CommandLine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static picocli.CommandLine.Command;
+import static picocli.CommandLine.Option;
+import static picocli.CommandLine.Parameters;
+
+/**
+ * Compact archive of the sampler events of the recordings of a run, to keep them without keeping the recordings
+ * <p>
+ * The archive is a gzipped stream of records: methods and stack traces are written once, when they are first
+ * referenced, and the events only refer to them by id, with their start times delta-encoded to the previous event.
+ * The parser collects the events in {@link Fragment}s while it counts them.
+ * Reading it yields the same {@link JFRParser.Counts} as parsing the recordings, apart from the pause histograms.
+ */
+class Archive {
+
+    static final String EXTENSION = ".jfa";
+
+    /**
+     * "CTAR"
+     */
+    private static final int MAGIC = 0x43544152;
+    private static final int VERSION = 1;
+
+    private static final int END = 0;
+    /**
+     * A method, its id is the number of methods before it
+     */
+    private static final int METHOD = 1;
+    /**
+     * A stack trace, its id is the number of stack traces before it
+     */
+    private static final int STACK = 2;
+    /**
+     * The end of an archived recording, with its number of events and whether it could be read completely
+     */
+    private static final int FILE = 3;
+    private static final int CPU_TIME_SAMPLE = 4;
+    private static final int CPU_TIME_SAMPLE_LOSS = 5;
+    private static final int OTHER_SAMPLE = 6;
+    private static final int SYNTHETIC_WORKLOAD = 7;
+
+    private Archive() {
+    }
+
+    /**
+     * An archived stack trace
+     *
+     * @param topFrame method id of the top frame, -1 for empty stacks and unresolved methods
+     */
+    private record Stack(int depth, boolean truncated, boolean unresolvedFrame, int topFrame) {
+    }
+
+    /**
+     * Content of a stack trace, to deduplicate the stack traces of different chunks
+     */
+    private record StackKey(boolean truncated, List<Integer> methods) {
+    }
+
+    /**
+     * The sampler events of one parsed chunk, collected by the {@link JFRParser} while it counts them,
+     * so that archiving a recording doesn't need another pass over it
+     * <p>
+     * Methods and stack traces have ids local to the fragment, the {@link Writer} maps them to the ids of the archive.
+     * Every chunk has its own fragment, as it is not thread-safe.
+     */
+    static class Fragment {
+        // the parser returns the same objects for every reference to a method or stack trace in a chunk
+        private Map<RecordedMethod, Integer> methodCache = new IdentityHashMap<>();
+        private Map<RecordedStackTrace, Integer> stackCache = new IdentityHashMap<>();
+        private final List<String> methods = new ArrayList<>();
+        private final List<StackKey> stacks = new ArrayList<>();
+        /**
+         * The events in the format of the archive, but with the local stack ids
+         */
+        private final ByteArrayOutputStream events = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(events);
+        private long lastEpochNanos;
+
+        void addCpuTimeSample(long epochNanos, RecordedStackTrace stackTrace) {
+            add(CPU_TIME_SAMPLE, epochNanos, stackTrace == null ? 0 : stackId(stackTrace) + 1);
+        }
+
+        void addOtherSample(long epochNanos, RecordedStackTrace stackTrace) {
+            add(OTHER_SAMPLE, epochNanos, stackTrace == null ? 0 : stackId(stackTrace) + 1);
+        }
+
+        void addLostSamples(long epochNanos, int lostSamples) {
+            add(CPU_TIME_SAMPLE_LOSS, epochNanos, lostSamples);
+        }
+
+        void addWorkload(long epochNanos, long cpuTimeNanos) {
+            add(SYNTHETIC_WORKLOAD, epochNanos, cpuTimeNanos);
+        }
+
+        /**
+         * Drop the references to the objects of the parser, after the chunk is parsed
+         */
+        void release() {
+            methodCache = null;
+            stackCache = null;
+        }
+
+        private void add(int kind, long epochNanos, long value) {
+            try {
+                out.writeByte(kind);
+                // the events of a chunk are only roughly ordered by time, so deltas can be negative
+                writeVarLong(out, zigZag(epochNanos - lastEpochNanos));
+                writeVarLong(out, value);
+            } catch (IOException e) {
+                // writing to a byte array doesn't fail
+                throw new UncheckedIOException(e);
+            }
+            lastEpochNanos = epochNanos;
+        }
+
+        private int stackId(RecordedStackTrace stackTrace) {
+            Integer id = stackCache.get(stackTrace);
+            if (id == null) {
+                var frames = stackTrace.getFrames();
+                List<Integer> frameMethods = new ArrayList<>(frames.size());
+                for (var frame : frames) {
+                    frameMethods.add(methodId(frame.getMethod()));
+                }
+                id = stacks.size();
+                stacks.add(new StackKey(stackTrace.isTruncated(), frameMethods));
+                stackCache.put(stackTrace, id);
+            }
+            return id;
+        }
+
+        /**
+         * @return the local id of the method, -1 if it can't be resolved
+         */
+        private int methodId(RecordedMethod method) {
+            if (JFRParser.isUnresolved(method)) {
+                return -1;
+            }
+            Integer id = methodCache.get(method);
+            if (id == null) {
+                id = methods.size();
+                methods.add(StackDistribution.MethodIds.keyOf(method));
+                methodCache.put(method, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Appends recordings to an archive, not thread-safe
+     */
+    static class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+        /**
+         * Method keys, see {@link StackDistribution.MethodIds#keyOf(RecordedMethod)}, to ids
+         */
+        private final Map<String, Integer> methods = new HashMap<>();
+        private final Map<StackKey, Integer> stacks = new HashMap<>();
+        private long lastEpochNanos;
+
+        Writer(Path archive) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(archive), 64 * 1024)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        /**
+         * Archive the sampler events of the recording, its chunks are parsed in parallel
+         */
+        void add(Path jfrFile) throws IOException {
+            add(new JFRParser(IterationTimes.Intervals.NONE, false, null, null, true).parseAll(List.of(jfrFile)));
+        }
+
+        /**
+         * Archive the fragments of a recording, parsed by a parser that collects them
+         */
+        void add(JFRParser.Counts recording) throws IOException {
+            if (recording.archive != null) {
+                for (var fragment : recording.archive) {
+                    add(fragment);
+                }
+            }
+            writeFile(recording.events, recording.erroneousFiles > 0);
+        }
+
+        private void add(Fragment fragment) throws IOException {
+            int[] methodIds = new int[fragment.methods.size()];
+            int[] stackIds = new int[fragment.stacks.size()];
+            Arrays.fill(methodIds, -1);
+            Arrays.fill(stackIds, -1);
+            var in = new DataInputStream(new ByteArrayInputStream(fragment.events.toByteArray()));
+            long epochNanos = 0;
+            while (in.available() > 0) {
+                int kind = in.readUnsignedByte();
+                epochNanos += unZigZag(readVarLong(in));
+                long value = readVarLong(in);
+                if ((kind == CPU_TIME_SAMPLE || kind == OTHER_SAMPLE) && value != 0) {
+                    value = stackId(fragment, (int) value - 1, stackIds, methodIds) + 1;
+                }
+                out.writeByte(kind);
+                writeVarLong(out, zigZag(epochNanos - lastEpochNanos));
+                writeVarLong(out, value);
+                lastEpochNanos = epochNanos;
+            }
+        }
+
+        private void writeFile(long events, boolean erroneous) throws IOException {
+            out.writeByte(FILE);
+            writeVarLong(out, events);
+            out.writeBoolean(erroneous);
+        }
+
+        /**
+         * @param stackIds  archive ids of the local stack ids of the fragment, -1 if not yet mapped
+         * @param methodIds archive ids of the local method ids of the fragment, -1 if not yet mapped
+         */
+        private int stackId(Fragment fragment, int localId, int[] stackIds, int[] methodIds) throws IOException {
+            if (stackIds[localId] == -1) {
+                var local = fragment.stacks.get(localId);
+                List<Integer> frameMethods = new ArrayList<>(local.methods().size());
+                for (int method : local.methods()) {
+                    frameMethods.add(method == -1 ? -1 : methodId(fragment, method, methodIds));
+                }
+                var key = new StackKey(local.truncated(), frameMethods);
+                Integer id = stacks.get(key);
+                if (id == null) {
+                    id = stacks.size();
+                    stacks.put(key, id);
+                    out.writeByte(STACK);
+                    out.writeBoolean(key.truncated());
+                    writeVarLong(out, frameMethods.size());
+                    for (int method : frameMethods) {
+                        writeVarLong(out, method + 1);
+                    }
+                }
+                stackIds[localId] = id;
+            }
+            return stackIds[localId];
+        }
+
+        private int methodId(Fragment fragment, int localId, int[] methodIds) throws IOException {
+            if (methodIds[localId] == -1) {
+                String key = fragment.methods.get(localId);
+                Integer id = methods.get(key);
+                if (id == null) {
+                    id = methods.size();
+                    methods.put(key, id);
+                    out.writeByte(METHOD);
+                    out.writeUTF(key);
+                }
+                methodIds[localId] = id;
+            }
+            return methodIds[localId];
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(END);
+            out.close();
+        }
+    }
+
+    /**
+     * Count the events of the archive like the parser counts the events of the archived recordings
+     */
+    static JFRParser.Counts read(Path archive, JFRParser parser) throws IOException {
+        long start = System.nanoTime();
+        var counts = parser.newCounts();
+        var methodIds = parser.methodIds();
+        try (var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(archive), 64 * 1024)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an archive of version " + VERSION + ": " + archive);
+            }
+            List<String> methods = new ArrayList<>();
+            List<Stack> stacks = new ArrayList<>();
+            long epochNanos = 0;
+            for (int kind = in.readUnsignedByte(); kind != END; kind = in.readUnsignedByte()) {
+                switch (kind) {
+                    case METHOD -> methods.add(in.readUTF());
+                    case STACK -> {
+                        boolean truncated = in.readBoolean();
+                        int depth = (int) readVarLong(in);
+                        int topFrame = -1;
+                        boolean unresolvedFrame = false;
+                        for (int i = 0; i < depth; i++) {
+                            int method = (int) readVarLong(in) - 1;
+                            unresolvedFrame |= method == -1;
+                            if (i == 0 && method != -1 && methodIds != null) {
+                                topFrame = methodIds.idOf(methods.get(method));
+                            }
+                        }
+                        stacks.add(new Stack(depth, truncated, unresolvedFrame, topFrame));
+                    }
+                    case FILE -> {
+                        counts.events += readVarLong(in);
+                        counts.files++;
+                        counts.erroneousFiles += in.readBoolean() ? 1 : 0;
+                    }
+                    case CPU_TIME_SAMPLE, CPU_TIME_SAMPLE_LOSS, OTHER_SAMPLE, SYNTHETIC_WORKLOAD -> {
+                        epochNanos += unZigZag(readVarLong(in));
+                        long value = readVarLong(in);
+                        switch (kind) {
+                            case CPU_TIME_SAMPLE -> {
+                                var stack = value == 0 ? null : stacks.get((int) value - 1);
+                                boolean valid = stack != null && stack.depth() > 0;
+                                parser.countCpuTimeSample(counts, epochNanos, valid, valid && stack.unresolvedFrame());
+                                if (methodIds != null && valid) {
+                                    counts.cpuTimeStacks.add(stack.depth(), stack.truncated(), stack.topFrame());
+                                }
+                            }
+                            case OTHER_SAMPLE -> {
+                                parser.countOtherSample(counts, epochNanos);
+                                if (methodIds != null && value != 0) {
+                                    var stack = stacks.get((int) value - 1);
+                                    counts.otherSamplerStacks.add(stack.depth(), stack.truncated(), stack.topFrame());
+                                }
+                            }
+                            case CPU_TIME_SAMPLE_LOSS -> parser.countLostSamples(counts, epochNanos, (int) value);
+                            default -> counts.workloadCpuTimeNanos += value;
+                        }
+                    }
+                    default -> throw new IOException("Unknown record " + kind + " in " + archive);
+                }
+            }
+        } finally {
+            counts.parseNanos = System.nanoTime() - start;
+        }
+        return counts;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Archives recordings and prints the counts of archives
+     */
+    @Command(name = "archive", mixinStandardHelpOptions = true,
+            description = "Archives JFR files into compact archives next to them, and prints the counts of archives.")
+    static class ArchiveCommand implements Runnable {
+
+        @Parameters(description = "JFR files to archive and archives (" + EXTENSION + ") to read.")
+        List<Path> files = List.of();
+
+        @Option(names = "--compare-stacks", description = "Compare the stack distributions of the samplers when reading archives.")
+        boolean compareStacks = false;
+
+        @Override
+        public void run() {
+            for (var file : files) {
+                try {
+                    if (file.toString().endsWith(EXTENSION)) {
+                        var counts = read(file, new JFRParser(IterationTimes.Intervals.NONE, compareStacks, null));
+                        System.out.println(file + ": " + counts);
+                        if (compareStacks) {
+                            System.out.println(String.join(",", StackDistribution.Comparison.toCSVHeader()));
+                            System.out.println(String.join(",",
+                                    new StackDistribution.Comparison(counts.cpuTimeStacks, counts.otherSamplerStacks).toCSV()));
+                        }
+                    } else {
+                        var archive = Path.of(file.toString().replaceFirst("\\.jfr$", "") + EXTENSION);
+                        try (var writer = new Writer(archive)) {
+                            writer.add(file);
+                        }
+                        System.out.println("Archived " + file + " (" + Files.size(file) + " bytes) to " + archive +
+                                " (" + Files.size(archive) + " bytes)");
+                    }
+                } catch (IOException e) {
+                    throw new CommandLine.ExecutionException(new CommandLine(this), "Failed to process " + file, e);
+                }
+            }
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package me.bechberger.ctest;
 
-import jdk.jfr.consumer.RecordingFile;
-
 import java.io.*;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,21 +16,28 @@ import java.util.stream.Stream;
 public abstract class BenchmarkRunner {
 
     final Main.OptionSet options;
+    final Main.WorkloadSettings workload;
     final int iterations;
 
-    BenchmarkRunner(Main.OptionSet options, int iterations) {
+    BenchmarkRunner(Main.OptionSet options, Main.WorkloadSettings workload) {
         this.options = options;
-        this.iterations = iterations;
+        this.workload = workload;
+        this.iterations = workload.iterations();
     }
 
+    private static final Object DOWNLOAD_LOCK = new Object();
+
     Path downloadIfNeeded(String jarName, String url) {
         // download benchmark if not already present
         Path jarPath = Paths.get(jarName);
-        if (!jarPath.toFile().exists()) {
-            try {
-                new ProcessBuilder("curl", "-L", "-o", jarName, url).inheritIO().start().waitFor();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        // parallel runs must not download the same jar concurrently
+        synchronized (DOWNLOAD_LOCK) {
+            if (!jarPath.toFile().exists()) {
+                try {
+                    new ProcessBuilder("curl", "-L", "-o", jarName, url).inheritIO().start().waitFor();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
             }
         }
         return jarPath;
@@ -39,83 +45,198 @@ public abstract class BenchmarkRunner {
 
     abstract void addOptions(Main.JavaOptions options, Path tmpFolder);
 
-    record Result(Main.OptionSet options, long duration, int otherSamplerEvents, int validCpuTimeEvents,
-                  int overflowedCpuTimeEvents, int emptyCpuTimeEvents, boolean error) {
+    /**
+     * The jar (or class folder) this class is loaded from, to run bundled workloads in the child
+     */
+    static String ownClassPath() {
+        try {
+            return Path.of(BenchmarkRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Settings of a single run that are not part of its option set
+     *
+     * @param liveMonitor    settings of the live monitor, null if the run should not be monitored
+     * @param controlChannel how recordings are rotated
+     * @param baseline       what the run leaves out to serve as a baseline
+     * @param timelineBucketMillis width of the timeline buckets, 0 for no timeline
+     * @param hangWatchdog   settings of the hang watchdog
+     * @param keepJfr        keep the recordings after parsing them
+     * @param pauseEvents    record all GC pauses, safepoints and VM operations for the pause histograms
+     * @param archiveFile    archive the sampler events of the recordings into this file, null for no archive
+     * @param stress         settings of the rotation stress, null for no stress
+     * @param metrics        receives the live monitor windows, null for no metrics
+     */
+    record RunSettings(String javaBinary, Main.Verbosity verbosity, CoreScheduler.CpuSet cpus,
+                       LiveMonitor.Settings liveMonitor, RecordingControl.Kind controlChannel, Baseline baseline,
+                       int timelineBucketMillis, HangWatchdog.Settings hangWatchdog, boolean keepJfr, boolean pauseEvents,
+                       Path archiveFile, RotationStress.Settings stress, Metrics metrics) {
+    }
+
+    /**
+     * What a run leaves out to serve as a baseline for the profiled runs of its config
+     */
+    enum Baseline {
+        /**
+         * A profiled run
+         */
+        NONE,
+        /**
+         * Run without JFR, to measure the throughput overhead of profiling
+         */
+        NO_JFR,
+        /**
+         * Run with JFR but without samplers, to measure the impact of the samplers on the pauses
+         */
+        NO_SAMPLERS
+    }
+
+    /**
+     * Width of the buckets the samples are collected in while the run is parsed, before they are attributed
+     * to the benchmark iterations, which are only known after the run
+     */
+    static final long ATTRIBUTION_BUCKET_NANOS = 50_000_000;
+
+    /**
+     * @param java      the java executable the run used
+     * @param durationMillis wall time of the run
+     * @param aborted   whether the run was aborted by the {@link LiveMonitor}
+     * @param hang      whether the run hung and was killed by the {@link HangWatchdog}
+     * @param crash     whether the JVM of the run crashed
+     * @param latencies latencies of the recording rotations
+     * @param cpuTime        CPU time of the child, to compute the expected number of samples
+     * @param iterationTimes iteration times reported by the benchmark
+     * @param stress         report of the rotation stress, null if the run wasn't stressed
+     */
+    record Result(Main.OptionSet options, String java, long durationMillis, JFRParser.Counts counts, boolean error, boolean aborted,
+                  boolean hang, boolean crash, RecordingControl.Latencies latencies, CpuTimeTracker.CpuTime cpuTime,
+                  IterationTimes iterationTimes, RotationStress.Report stress) {
+
+        static final double MAX_OVERFLOW_RATE = 0.2;
+        static final double MAX_EMPTY_RATE = 0.2;
+        static final double MIN_VALID_RATE = 0.7;
+
+        static Result failed(Main.OptionSet options, String java, long durationMillis) {
+            return new Result(options, java, durationMillis, new JFRParser.Counts(), true, false, false, false, new RecordingControl.Latencies(),
+                    CpuTimeTracker.CpuTime.NONE, IterationTimes.NONE, null);
+        }
+
+        /**
+         * Wall time of the run in whole seconds
+         */
+        long duration() {
+            return durationMillis / 1000;
+        }
 
+        /**
+         * The java executable is the last column, so that the columns of older CSV files keep their positions
+         */
         public List<String> toCSV() {
             List<String> csv = new ArrayList<>(options.toCSV());
-            csv.addAll(Stream.of(duration, otherSamplerEvents, validCpuTimeEvents, overflowedCpuTimeEvents, emptyCpuTimeEvents, isReasonable(), error).map(Object::toString).toList());
+            csv.addAll(Stream.of(duration(), counts.otherSamplerEvents, counts.validCpuTimeEvents, counts.overflowedCpuTimeEvents, counts.emptyCpuTimeEvents, isReasonable(), error, counts.events, (long) counts.eventsPerSecond(), aborted, hang, crash, counts.workloadCpuTimeNanos / 1_000_000, counts.unresolvedFrameCpuTimeEvents).map(Object::toString).toList());
+            csv.addAll(latencies.toCSV());
+            csv.addAll(cpuTime.toCSV(options, counts));
+            csv.addAll(counts.stackComparison().toCSV());
+            csv.addAll(counts.timeline != null ? counts.timeline.toSummaryCSV() : Timeline.emptySummaryCSV());
+            csv.add(java);
+            return csv;
+        }
+
+        /**
+         * Rows with the sample counts per benchmark, if the benchmark reported the times of its iterations
+         */
+        public List<List<String>> toBenchmarkCSV() {
+            List<List<String>> rows = new ArrayList<>();
+            for (var row : counts.benchmarkCounts.toCSV(iterationTimes.intervals().names())) {
+                List<String> csv = new ArrayList<>(options.toCSV());
+                csv.addAll(row);
+                csv.add(java);
+                rows.add(csv);
+            }
+            return rows;
+        }
+
+        public static List<String> toBenchmarkCSVHeader() {
+            List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
+            csv.addAll(JFRParser.BenchmarkCounts.toCSVHeader());
+            csv.add("java");
             return csv;
         }
 
         public static List<String> toCSVHeader() {
             List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
-            csv.addAll(List.of("duration", "other sampler events", "valid cpu time events", "overflowed cpu time events", "empty cpu time events", "reasonable", "error"));
+            csv.addAll(List.of("duration", "other sampler events", "valid cpu time events", "overflowed cpu time events", "empty cpu time events", "reasonable", "error", "parsed events", "parsed events per second", "aborted", "hang", "crash", "workload cpu time ms", "cpu time events with unresolved frames"));
+            csv.addAll(RecordingControl.Latencies.toCSVHeader());
+            csv.addAll(CpuTimeTracker.CpuTime.toCSVHeader());
+            csv.addAll(StackDistribution.Comparison.toCSVHeader());
+            csv.addAll(Timeline.toSummaryCSVHeader());
+            csv.add("java");
             return csv;
         }
 
-        public boolean isReasonable() {
-            if (duration <= 0 || validCpuTimeEvents < 100) {
-                return false;
+        /**
+         * Rows of the timeline, empty if none was collected
+         */
+        public List<List<String>> toTimelineCSV() {
+            List<List<String>> rows = new ArrayList<>();
+            if (counts.timeline == null) {
+                return rows;
             }
-            double overflowRate = (double) overflowedCpuTimeEvents / validCpuTimeEvents;
-            double errorRate = (double) emptyCpuTimeEvents / validCpuTimeEvents;
-            double validRate = (double) validCpuTimeEvents / (validCpuTimeEvents + overflowedCpuTimeEvents + emptyCpuTimeEvents);
+            for (var row : counts.timeline.toCSV()) {
+                List<String> csv = new ArrayList<>(options.toCSV());
+                csv.add(String.valueOf(counts.timeline.buckets().startEpochNanos() / 1_000_000));
+                csv.addAll(row);
+                csv.add(java);
+                rows.add(csv);
+            }
+            return rows;
+        }
 
-            return overflowRate < 0.2 && errorRate < 0.2 && validRate > 0.7;
+        /**
+         * Row of the rotation stress report, empty if the run wasn't stressed
+         */
+        public List<List<String>> toStressCSV() {
+            return stress == null ? List.of() : List.of(stress.toCSV(options));
         }
-    }
 
-    Result parseJFRFiles(List<Path> jfrFiles, Main.OptionSet options, long duration) {
-        int otherSamplerEvents = 0;
-        int validCpuTimeEvents = 0;
-        int overflowedCpuTimeEvents = 0;
-        int emptyCpuTimeEvents = 0;
-        int errors = 0;
-        for (var jfrFile : jfrFiles) {
-            var result = parseJFRFile(jfrFile, options, duration);
-            if (result.error) {
-                errors++;
-            }
-            otherSamplerEvents += result.otherSamplerEvents;
-            validCpuTimeEvents += result.validCpuTimeEvents;
-            overflowedCpuTimeEvents += result.overflowedCpuTimeEvents;
-            emptyCpuTimeEvents += result.emptyCpuTimeEvents;
+        public static List<String> toTimelineCSVHeader() {
+            List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
+            csv.add("run start unix ms");
+            csv.addAll(Timeline.toCSVHeader());
+            csv.add("java");
+            return csv;
         }
-        return new Result(options, duration, otherSamplerEvents, validCpuTimeEvents, overflowedCpuTimeEvents, emptyCpuTimeEvents, errors == jfrFiles.size());
-    }
 
-    Result parseJFRFile(Path jfrFile, Main.OptionSet options, long duration) {
-        if (!Files.exists(jfrFile)) {
-            System.err.println("File " + jfrFile + " does not exist");
-            return new Result(options, 0, 0, 0, 0, 0, true);
+        /**
+         * Whether the run found a potential sampler problem
+         */
+        public boolean failed() {
+            return error || aborted || hang || crash || (samplesCpuTime() && !isReasonable());
         }
-        int otherSamplerEvents = 0;
-        int validCpuTimeEvents = 0;
-        int overflowedCpuTimeEvents = 0;
-        int emptyCpuTimeEvents = 0;
-        try {
-            if (Files.size(jfrFile) == 0) {
-                System.err.println("File " + jfrFile + " is empty");
-                return new Result(options, 0, 0, 0, 0, 0, true);
-            }
-            for (var event : RecordingFile.readAllEvents(jfrFile)) {
-                if (event.getEventType().getName().equals("jdk.CPUTimeSample")) {
-                    if (event.getStackTrace() != null && !event.getStackTrace().getFrames().isEmpty()) {
-                        validCpuTimeEvents++;
-                    } else {
-                        emptyCpuTimeEvents++;
-                    }
-                } else if (event.getEventType().getName().equals("jdk.NativeMethodSample") || event.getEventType().getName().equals("jdk.ExecutionSample")) {
-                    otherSamplerEvents++;
-                } else if (event.getEventType().getName().equals("jdk.CPUTimeSampleLoss")) {
-                    overflowedCpuTimeEvents += event.getInt("lostSamples");
-                }
+
+        /**
+         * Whether the CPU time sampler ran, runs without it have no CPU time samples to be reasonable
+         */
+        public boolean samplesCpuTime() {
+            return options.sampler().cpuTimeSamplePeriodMillis(options.samplingPeriod()) > 0;
+        }
+
+        public boolean isReasonable() {
+            if (duration() <= 0 || counts.validCpuTimeEvents < 100) {
+                return false;
             }
-            return new Result(options, duration, otherSamplerEvents, validCpuTimeEvents, overflowedCpuTimeEvents, emptyCpuTimeEvents, false);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return new Result(options, duration, otherSamplerEvents, validCpuTimeEvents, overflowedCpuTimeEvents, emptyCpuTimeEvents, true);
+            return hasReasonableRates(counts.validCpuTimeEvents, counts.overflowedCpuTimeEvents, counts.emptyCpuTimeEvents);
+        }
+
+        static boolean hasReasonableRates(long validCpuTimeEvents, long overflowedCpuTimeEvents, long emptyCpuTimeEvents) {
+            double overflowRate = (double) overflowedCpuTimeEvents / validCpuTimeEvents;
+            double errorRate = (double) emptyCpuTimeEvents / validCpuTimeEvents;
+            double validRate = (double) validCpuTimeEvents / (validCpuTimeEvents + overflowedCpuTimeEvents + emptyCpuTimeEvents);
+
+            return overflowRate < MAX_OVERFLOW_RATE && errorRate < MAX_EMPTY_RATE && validRate > MIN_VALID_RATE;
         }
     }
 
@@ -131,45 +252,54 @@ public abstract class BenchmarkRunner {
         private final Main.JavaOptions javaOptions;
         private final Function<Integer, Path> jfrFileGenerator;
         private final CopyOnWriteArrayList<Path> jfrFiles;
+        private final RecordingPipeline pipeline;
         private final long pid;
+        private final RecordingControl.Kind controlChannel;
+        private final RecordingControl.Latencies latencies = new RecordingControl.Latencies();
 
-        JFRStartAndStopLoop(Main.OptionSet options, Main.JavaOptions javaOptions, Function<Integer, Path> jfrFileGenerator, CopyOnWriteArrayList<Path> jfrFiles, long pid) {
+        JFRStartAndStopLoop(Main.OptionSet options, Main.JavaOptions javaOptions, Function<Integer, Path> jfrFileGenerator, CopyOnWriteArrayList<Path> jfrFiles, RecordingPipeline pipeline, long pid, RecordingControl.Kind controlChannel) {
             this.options = options;
             this.javaOptions = javaOptions;
             this.jfrFileGenerator = jfrFileGenerator;
             this.jfrFiles = jfrFiles;
+            this.pipeline = pipeline;
             this.pid = pid;
+            this.controlChannel = controlChannel;
         }
 
-        void jcmd(String... args) throws InterruptedException, IOException{
-            List<String> arguments = Arrays.stream(args).flatMap(s -> Stream.of(s.split(","))).toList();
-            List<String> command = new ArrayList<>();
-            command.add(System.getProperty("java.home") + "/bin/jcmd");
-            command.add(String.valueOf(pid));
-            command.addAll(arguments);
-            try {
-                int exit = new ProcessBuilder(command).start().waitFor();
-                if (exit != 0) {
-                    throw new IOException("jcmd failed: " + String.join(" ", command));
-                }
-            } catch (InterruptedException e) {
-                throw e;
-            }
+        /**
+         * Only valid after the loop finished
+         */
+        RecordingControl.Latencies latencies() {
+            return latencies;
         }
 
         @Override
         public void run() {
-            while (true) {
-                try {
+            RecordingControl control = null;
+            try {
+                while (true) {
                     var sleep = options.duration().getNextDurationMillis();
                     Thread.sleep(sleep);
+                    if (control == null) {
+                        // attach only after the first sleep, when the child is surely up
+                        control = RecordingControl.create(controlChannel, pid);
+                    }
                     int index = jfrFiles.size();
                     Path jfrFile = jfrFileGenerator.apply(index).toAbsolutePath();
-                    jcmd("JFR.stop", index == 0 ? "name=1" : ("name=" + index + "s"), "filename=" + jfrFile);
+                    long rotationEpochMillis = System.currentTimeMillis();
+                    long stopStart = System.nanoTime();
+                    control.stop(index == 0 ? "1" : (index + "s"), jfrFile);
+                    long startStart = System.nanoTime();
                     jfrFiles.add(jfrFile);
-                    jcmd("JFR.start", "name=" + (index + 1) + "s", javaOptions.toJFROptions(jfrFileGenerator.apply(index + 1).toAbsolutePath()));
-                } catch (InterruptedException | IOException e) {
-                    break;
+                    pipeline.submit(jfrFile);
+                    control.start((index + 1) + "s", jfrFileGenerator.apply(index + 1).toAbsolutePath(), javaOptions);
+                    latencies.record(rotationEpochMillis * 1_000_000, startStart - stopStart, System.nanoTime() - startStart);
+                }
+            } catch (InterruptedException | IOException e) {
+            } finally {
+                if (control != null) {
+                    control.close();
                 }
             }
         }
@@ -197,20 +327,40 @@ public abstract class BenchmarkRunner {
         }
     }
 
-    Result run(Function<Integer, Path> jfrFileGenerator, String javaBinary, Main.Verbosity verbosity) {
-        System.out.println("Running " + options);
+    Result run(Function<Integer, Path> jfrFileGenerator, RunSettings settings) {
+        var verbosity = settings.verbosity();
+        var cpus = settings.cpus();
+        System.out.println("Running " + options + (cpus.isRestricted() ? " on CPUs " + cpus : ""));
         Path tmpFolder = null;
         try {
             tmpFolder = Files.createTempDirectory("jfr");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        boolean profile = settings.baseline() != Baseline.NO_JFR;
         Main.JavaOptions javaOptions = new Main.JavaOptions();
         options.addOption(javaOptions);
+        if (settings.baseline() == Baseline.NO_SAMPLERS) {
+            // overrides the sampler settings of the config
+            javaOptions.addJfrOption(Main.NO_SAMPLER_CONFIG);
+        }
+        cpus.addOption(javaOptions);
+        javaOptions.addOption(HangWatchdog.errorFileOption(tmpFolder));
+        Path repository = tmpFolder.resolve("repository");
+        if (profile && settings.liveMonitor() != null) {
+            // the monitor streams the repository, so we have to know where it is
+            javaOptions.addJfrRecorderOption("repository=" + repository);
+        }
+        if (profile && settings.timelineBucketMillis() > 0) {
+            javaOptions.addJfrOption(Timeline.JFR_OPTIONS);
+        }
+        if (profile && settings.pauseEvents()) {
+            javaOptions.addJfrOption(PauseHistograms.JFR_OPTIONS);
+        }
         addOptions(javaOptions, tmpFolder);
-        List<String> command = new ArrayList<>();
-        command.add(resolveJavaBinary(javaBinary));
-        command.addAll(javaOptions.toOptions(jfrFileGenerator.apply(0)));
+        List<String> command = new ArrayList<>(cpus.toCommandPrefix());
+        command.add(resolveJavaBinary(settings.javaBinary()));
+        command.addAll(profile ? javaOptions.toOptions(jfrFileGenerator.apply(0)) : javaOptions.toBaselineOptions());
         System.out.println("Command: " + String.join(" ", command));
         ProcessBuilder pb = new ProcessBuilder(command.toArray(new String[0]));
         if (verbosity != Main.Verbosity.SILENT) {
@@ -226,26 +376,76 @@ public abstract class BenchmarkRunner {
         }
         long start = System.currentTimeMillis();
         var jfrFiles = new CopyOnWriteArrayList<Path>();
+        var timelineBuckets = settings.timelineBucketMillis() > 0 ? new Timeline.Buckets(start * 1_000_000, settings.timelineBucketMillis() * 1_000_000L) : null;
+        // the iterations are only known after the run, so the samples are attributed to them afterwards,
+        // the stress report locates the transitions in the same buckets
+        long attributionBucketNanos = settings.stress() != null ? settings.stress().bucketMillis() * 1_000_000L : ATTRIBUTION_BUCKET_NANOS;
+        var pipeline = profile ? new RecordingPipeline(new JFRParser(IterationTimes.Intervals.NONE, options.sampler().comparesSamplers(), timelineBuckets,
+                new Timeline.Buckets(start * 1_000_000, attributionBucketNanos), settings.archiveFile() != null), settings.keepJfr(), settings.archiveFile()) : null;
+        Process p = null;
+        CpuTimeTracker cpuTimeTracker = null;
+        LiveMonitor monitor = null;
+        JFRStartAndStopLoop starter = null;
+        Thread starterThread = null;
+        RotationStress.Loop stress = null;
+        Thread stressThread = null;
         try {
-            Process p = pb.start();
+            p = pb.start();
+            cpuTimeTracker = new CpuTimeTracker(p.toHandle());
+            cpuTimeTracker.start();
             if (verbosity == Main.Verbosity.ALL_WITH_TIMESTAMPS) {
                 new OutputStreamTimestampPrinterThread(p.getInputStream(), System.out).start();
                 new OutputStreamTimestampPrinterThread(p.getErrorStream(), System.err).start();
             }
-            int exitCode;
-            if (options.duration().producesMultipleFiles()) {
-                var starter = new JFRStartAndStopLoop(options, javaOptions, jfrFileGenerator, jfrFiles, p.pid());
-                var thread = new Thread(starter);
-                thread.start();
-                exitCode = p.waitFor();
-                thread.interrupt();
-                while (thread.isAlive()) {
+            if (profile && settings.liveMonitor() != null) {
+                var metrics = settings.metrics();
+                monitor = new LiveMonitor(settings.liveMonitor(), repository, p::destroy, metrics == null ? null :
+                        (valid, lost, empty, windowMillis) -> metrics.liveWindow(options, settings.javaBinary(), valid, lost, empty, windowMillis));
+                monitor.start();
+            }
+            var watchdog = new HangWatchdog(settings.hangWatchdog(), command.get(cpus.toCommandPrefix().size()), tmpFolder);
+            String name = String.join("_", options.toCSV()).replace(' ', '-');
+            if (profile && settings.stress() != null) {
+                stress = new RotationStress.Loop(settings.stress(), options, p.toHandle(), settings.controlChannel(), tmpFolder.resolve("stress"));
+                stressThread = new Thread(stress, "rotation-stress");
+                stressThread.start();
+            }
+            boolean hang;
+            if (!profile) {
+                hang = watchdog.await(p, name);
+            } else if (options.duration().producesMultipleFiles()) {
+                starter = new JFRStartAndStopLoop(options, javaOptions, jfrFileGenerator, jfrFiles, pipeline, p.pid(), settings.controlChannel());
+                starterThread = new Thread(starter);
+                starterThread.start();
+                hang = watchdog.await(p, name);
+                starterThread.interrupt();
+                while (starterThread.isAlive()) {
                     Thread.sleep(100);
                 }
+                // the recording that ran when the child exited is written on exit
+                Path last = jfrFileGenerator.apply(jfrFiles.size()).toAbsolutePath();
+                if (Files.exists(last)) {
+                    jfrFiles.add(last);
+                    pipeline.submit(last);
+                }
             } else {
                 jfrFiles.add(jfrFileGenerator.apply(0));
-                exitCode = p.waitFor();
+                hang = watchdog.await(p, name);
+                pipeline.submit(jfrFiles.get(0));
+            }
+            if (stressThread != null) {
+                stressThread.interrupt();
+                stressThread.join();
+            }
+            int exitCode = p.exitValue();
+            boolean aborted = monitor != null && monitor.aborted();
+            // the live monitor terminates aborted runs with a signal
+            boolean crash = !hang && !aborted && watchdog.collectCrash(p, name, start);
+            cpuTimeTracker.close();
+            if (monitor != null) {
+                monitor.close();
             }
+            var iterationTimes = IterationTimes.read(tmpFolder.resolve(IterationTimes.FILE_NAME));
             try (var dirStream = Files.walk(tmpFolder)) {
                 dirStream
                         .map(Path::toFile)
@@ -257,18 +457,58 @@ public abstract class BenchmarkRunner {
             if (exitCode != 0) {
               //  throw new IOException("Process failed");
             }
-            return parseJFRFiles(jfrFiles, options, (System.currentTimeMillis() - start) / 1000);
+            long durationMillis = System.currentTimeMillis() - start;
+            var counts = profile ? pipeline.finish() : new JFRParser.Counts();
+            var stressReport = stress != null ? stress.report(counts.attribution) : null;
+            counts.attribute(iterationTimes.intervals());
+            var latencies = starter != null ? starter.latencies() : new RecordingControl.Latencies();
+            if (counts.timeline != null) {
+                latencies.rotationEpochNanos().forEach(counts.timeline::addRotation);
+            }
+            return new Result(options, settings.javaBinary(), durationMillis, counts, profile ? counts.allFilesErroneous() : exitCode != 0,
+                    aborted, hang, crash, latencies, cpuTimeTracker.cpuTime(), iterationTimes, stressReport);
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
-            return new Result(options, (System.currentTimeMillis() - start) / 1000, 0, 0, 0, 0, true);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return Result.failed(options, settings.javaBinary(), System.currentTimeMillis() - start);
+        } finally {
+            // only does something if the run was interrupted or failed, so that no JVM outlives its run
+            if (p != null && p.isAlive()) {
+                p.destroyForcibly();
+            }
+            if (starterThread != null) {
+                starterThread.interrupt();
+            }
+            if (stressThread != null) {
+                stressThread.interrupt();
+            }
+            closeQuietly(cpuTimeTracker);
+            closeQuietly(monitor);
+            if (pipeline != null) {
+                pipeline.close();
+            }
         }
+    }
 
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     static class RenaissanceBenchmarkRunner extends BenchmarkRunner {
 
-        public RenaissanceBenchmarkRunner(Main.OptionSet options, int iterations) {
-            super(options, iterations);
+        public RenaissanceBenchmarkRunner(Main.OptionSet options, Main.WorkloadSettings workload) {
+            super(options, workload);
         }
 
         @Override
@@ -289,6 +529,8 @@ public abstract class BenchmarkRunner {
             }
             javaOptions.addOption("--scratch-base");
             javaOptions.addOption(tmpFolder.toString());
+            javaOptions.addOption("--csv");
+            javaOptions.addOption(tmpFolder.resolve(IterationTimes.FILE_NAME).toString());
         }
 
         private List<String> getBenchmarks(Path renaissancePath) {
@@ -309,4 +551,69 @@ public abstract class BenchmarkRunner {
             }
         }
     }
+
+    /**
+     * Runs the {@link SyntheticWorkload} from this jar, works offline
+     */
+    static class SyntheticBenchmarkRunner extends BenchmarkRunner {
+
+        public SyntheticBenchmarkRunner(Main.OptionSet options, Main.WorkloadSettings workload) {
+            super(options, workload);
+        }
+
+        @Override
+        void addOptions(Main.JavaOptions javaOptions, Path tmpFolder) {
+            javaOptions.addOption("-cp");
+            javaOptions.addOption(ownClassPath());
+            javaOptions.addOption(SyntheticWorkload.class.getName());
+            javaOptions.addOption(String.valueOf(workload.threads()));
+            javaOptions.addOption(String.valueOf(workload.durationSeconds()));
+            javaOptions.addOption(tmpFolder.resolve(IterationTimes.FILE_NAME).toString());
+        }
+    }
+
+    /**
+     * Runs the {@link ScalingWorkload} from this jar, works offline
+     */
+    static class ScalingBenchmarkRunner extends BenchmarkRunner {
+
+        public ScalingBenchmarkRunner(Main.OptionSet options, Main.WorkloadSettings workload) {
+            super(options, workload);
+        }
+
+        @Override
+        void addOptions(Main.JavaOptions javaOptions, Path tmpFolder) {
+            if (workload.scalingCarriers() != -1) {
+                javaOptions.addOption("-Djdk.virtualThreadScheduler.parallelism=" + workload.scalingCarriers());
+            }
+            javaOptions.addOption("-cp");
+            javaOptions.addOption(ownClassPath());
+            javaOptions.addOption(ScalingWorkload.class.getName());
+            javaOptions.addOption(String.valueOf(workload.scalingMaxThreads()));
+            javaOptions.addOption(String.valueOf(workload.scalingPhaseSeconds()));
+            javaOptions.addOption(tmpFolder.resolve(IterationTimes.FILE_NAME).toString());
+        }
+    }
+
+    /**
+     * Runs the {@link ClassUnloadWorkload} from this jar, works offline
+     */
+    static class ClassUnloadTestRunner extends BenchmarkRunner {
+
+        public ClassUnloadTestRunner(Main.OptionSet options, Main.WorkloadSettings workload) {
+            super(options, workload);
+        }
+
+        @Override
+        void addOptions(Main.JavaOptions javaOptions, Path tmpFolder) {
+            javaOptions.addOption("-cp");
+            javaOptions.addOption(ownClassPath());
+            javaOptions.addOption(ClassUnloadWorkload.class.getName());
+            javaOptions.addOption(String.valueOf(workload.threads()));
+            javaOptions.addOption(String.valueOf(workload.durationSeconds()));
+            javaOptions.addOption(String.valueOf(workload.classUnloadRate()));
+            javaOptions.addOption(String.valueOf(workload.classUnloadIterations()));
+            javaOptions.addOption(String.valueOf(workload.classUnloadGCInterval()));
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline class unloading workload, started as the main class of the child JVM
+ * by {@link BenchmarkRunner.ClassUnloadTestRunner}
+ * <p>
+ * Every thread continuously defines copies of {@link Template}, alternating between hidden classes and regular
+ * classes in throwaway class loaders, runs their hot loop till it is (OSR) compiled and drops them, so that
+ * classes, methods and compiled code are unloaded while samples of them are in flight.
+ */
+public class ClassUnloadWorkload {
+
+    /**
+     * The class that is defined over and over, only its bytes are used
+     */
+    public static class Template {
+
+        public static long run(int iterations) {
+            long result = 0;
+            for (int i = 0; i < iterations; i++) {
+                result += step(result, i);
+            }
+            return result;
+        }
+
+        private static long step(long result, int i) {
+            return (result ^ i) * 0x9E3779B97F4A7C15L >>> 3;
+        }
+    }
+
+    /**
+     * Defines a single class and is dropped with it
+     */
+    static class ThrowawayLoader extends ClassLoader {
+
+        ThrowawayLoader() {
+            super(ClassUnloadWorkload.class.getClassLoader());
+        }
+
+        Class<?> define() {
+            return defineClass(Template.class.getName(), TEMPLATE_BYTES, 0, TEMPLATE_BYTES.length);
+        }
+    }
+
+    private static final byte[] TEMPLATE_BYTES = templateBytes();
+
+    private static final MethodType RUN_TYPE = MethodType.methodType(long.class, int.class);
+
+    /**
+     * Calls of the hot loop per defined class
+     */
+    private static final int CALLS_PER_CLASS = 3;
+
+    private static final AtomicLong definedClasses = new AtomicLong();
+
+    private static volatile long sink;
+
+    private static byte[] templateBytes() {
+        try (InputStream in = ClassUnloadWorkload.class.getResourceAsStream(
+                Template.class.getName().substring(Template.class.getPackageName().length() + 1) + ".class")) {
+            if (in == null) {
+                throw new IllegalStateException("Class file of " + Template.class.getName() + " not found");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MethodHandle defineClass(boolean hidden) throws ReflectiveOperationException {
+        if (hidden) {
+            // not defined as strong, so the hidden class can be unloaded as soon as it isn't reachable
+            var lookup = MethodHandles.lookup().defineHiddenClass(TEMPLATE_BYTES, true);
+            return lookup.findStatic(lookup.lookupClass(), "run", RUN_TYPE);
+        }
+        return MethodHandles.publicLookup().findStatic(new ThrowawayLoader().define(), "run", RUN_TYPE);
+    }
+
+    /**
+     * @param nanosPerClass minimum time between two classes of this thread, 0 for no limit
+     */
+    static void work(long endNanos, int iterations, long nanosPerClass) {
+        long result = 0;
+        boolean hidden = false;
+        try {
+            while (System.nanoTime() < endNanos) {
+                long start = System.nanoTime();
+                var run = defineClass(hidden);
+                for (int i = 0; i < CALLS_PER_CLASS; i++) {
+                    result += (long) run.invokeExact(iterations);
+                }
+                definedClasses.incrementAndGet();
+                hidden = !hidden;
+                long remaining = nanosPerClass - (System.nanoTime() - start);
+                if (remaining > 0) {
+                    Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        sink += result;
+    }
+
+    /**
+     * Usage: ClassUnloadWorkload threads duration_seconds classes_per_second iterations gc_interval_millis
+     * <p>
+     * threads=-1 for one thread per available processor, classes_per_second=-1 for no limit and
+     * gc_interval_millis=0 to rely on the GCs triggered by the metaspace usage to unload the classes
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Integer.parseInt(args[0]);
+        if (threads == -1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        long endNanos = System.nanoTime() + Long.parseLong(args[1]) * 1_000_000_000L;
+        int classesPerSecond = Integer.parseInt(args[2]);
+        int iterations = Integer.parseInt(args[3]);
+        long gcIntervalMillis = Long.parseLong(args[4]);
+        long nanosPerClass = classesPerSecond <= 0 ? 0 : 1_000_000_000L * threads / classesPerSecond;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(Thread.ofPlatform().name("classunload-" + i).start(() -> work(endNanos, iterations, nanosPerClass)));
+        }
+        if (gcIntervalMillis > 0) {
+            Thread.ofPlatform().daemon().name("classunload-gc").start(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(gcIntervalMillis);
+                        System.gc();
+                    }
+                } catch (InterruptedException e) {
+                }
+            });
+        }
+        for (var worker : workers) {
+            worker.join();
+        }
+        System.out.println("Class unload workload defined " + definedClasses.get() + " classes with " + threads + " threads");
+    }
+}
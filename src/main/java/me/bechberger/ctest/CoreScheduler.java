@@ -0,0 +1,150 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Hands out disjoint sets of CPUs to concurrently running benchmarks,
+ * so that parallel runs don't skew each other's sample counts
+ */
+class CoreScheduler {
+
+    /**
+     * A set of CPUs a child JVM is pinned to, empty if the child is not pinned
+     */
+    record CpuSet(List<Integer> cpus) implements Main.OptionAdder {
+
+        static final CpuSet UNRESTRICTED = new CpuSet(List.of());
+
+        boolean isRestricted() {
+            return !cpus.isEmpty();
+        }
+
+        String toCpuList() {
+            return cpus.stream().map(String::valueOf).collect(Collectors.joining(","));
+        }
+
+        /**
+         * Tell the JVM how many CPUs it has, so that it sizes its GC and compiler thread pools accordingly
+         */
+        @Override
+        public void addOption(Main.JavaOptions options) {
+            if (isRestricted()) {
+                options.addOption("-XX:ActiveProcessorCount=" + cpus.size());
+            }
+        }
+
+        /**
+         * Command prefix that pins the started process to the CPUs, empty if pinning isn't supported,
+         * see {@link #canPin()}
+         */
+        List<String> toCommandPrefix() {
+            if (!isRestricted() || !TASKSET_AVAILABLE) {
+                return List.of();
+            }
+            return List.of("taskset", "-c", toCpuList());
+        }
+
+        @Override
+        public String toString() {
+            return isRestricted() ? toCpuList() : "all";
+        }
+    }
+
+    private static final boolean TASKSET_AVAILABLE = isTasksetAvailable();
+
+    private final TreeSet<Integer> freeCpus;
+    private final int totalCpus;
+
+    CoreScheduler(List<Integer> cpus) {
+        this.freeCpus = new TreeSet<>(cpus);
+        this.totalCpus = freeCpus.size();
+    }
+
+    CoreScheduler() {
+        this(availableCpus());
+    }
+
+    int totalCpus() {
+        return totalCpus;
+    }
+
+    /**
+     * Whether child processes can be pinned to their CPUs, which requires taskset
+     */
+    static boolean canPin() {
+        return TASKSET_AVAILABLE;
+    }
+
+    /**
+     * Blocks till {@code count} CPUs are free and reserves them
+     */
+    synchronized CpuSet acquire(int count) throws InterruptedException {
+        if (count > totalCpus) {
+            throw new IllegalArgumentException("Requested " + count + " CPUs, but only " + totalCpus + " are available");
+        }
+        while (freeCpus.size() < count) {
+            wait();
+        }
+        List<Integer> cpus = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            cpus.add(freeCpus.pollFirst());
+        }
+        return new CpuSet(cpus);
+    }
+
+    synchronized void release(CpuSet cpuSet) {
+        freeCpus.addAll(cpuSet.cpus());
+        notifyAll();
+    }
+
+    /**
+     * Obtain the CPUs this process is allowed to run on, falling back to all processors
+     */
+    static List<Integer> availableCpus() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseCpuList(line.substring("Cpus_allowed_list:".length()).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not on Linux or not parseable
+        }
+        return IntStream.range(0, Runtime.getRuntime().availableProcessors()).boxed().toList();
+    }
+
+    /**
+     * Parse a Linux CPU list like "0-3,8,10-11"
+     */
+    static List<Integer> parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String part : list.split(",")) {
+            if (part.isBlank()) {
+                continue;
+            }
+            String[] range = part.trim().split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = range.length > 1 ? Integer.parseInt(range[1]) : start;
+            for (int i = start; i <= end; i++) {
+                cpus.add(i);
+            }
+        }
+        return cpus;
+    }
+
+    private static boolean isTasksetAvailable() {
+        try {
+            return new ProcessBuilder("taskset", "-V").redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package me.bechberger.ctest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Generates small covering arrays: sets of rows that contain every combination of values of every t dimensions
+ * at least once, so that t-wise interactions of the options are tested with far fewer runs than the full product
+ * <p>
+ * Uses the greedy AETG construction: every row starts with an uncovered combination and fills the remaining
+ * dimensions with the values that cover the most uncovered combinations, the best of several candidates is kept.
+ */
+class CoveringArray {
+
+    private static final int CANDIDATES = 50;
+
+    /**
+     * A combination of t dimensions, with the combinations of their values that are covered so far
+     *
+     * @param sizes sizes of all dimensions
+     */
+    private record Interaction(int[] dimensions, int[] sizes, boolean[] covered) {
+
+        int index(int[] row) {
+            int index = 0;
+            for (int dimension : dimensions) {
+                index = index * sizes[dimension] + row[dimension];
+            }
+            return index;
+        }
+
+        boolean isAssigned(int[] row) {
+            return Arrays.stream(dimensions).allMatch(d -> row[d] != -1);
+        }
+
+        boolean contains(int dimension) {
+            return Arrays.stream(dimensions).anyMatch(d -> d == dimension);
+        }
+    }
+
+    private CoveringArray() {
+    }
+
+    /**
+     * @param sizes    number of values per dimension
+     * @param strength t, the number of dimensions whose value combinations have to be covered,
+     *                 the full product is returned if it is at least the number of dimensions
+     * @return rows of value indices
+     */
+    static List<int[]> generate(int[] sizes, int strength, long seed) {
+        if (strength >= sizes.length || Arrays.stream(sizes).anyMatch(s -> s == 0)) {
+            return product(sizes);
+        }
+        List<Interaction> interactions = new ArrayList<>();
+        combinations(sizes.length, strength, 0, new int[strength], 0, dimensions -> {
+            int values = Arrays.stream(dimensions).map(d -> sizes[d]).reduce(1, (a, b) -> a * b);
+            interactions.add(new Interaction(dimensions, sizes, new boolean[values]));
+        });
+        long uncovered = interactions.stream().mapToLong(i -> i.covered().length).sum();
+        Random random = new Random(seed);
+        List<int[]> rows = new ArrayList<>();
+        while (uncovered > 0) {
+            int[] best = null;
+            int bestCovered = -1;
+            for (int c = 0; c < CANDIDATES; c++) {
+                int[] row = candidate(sizes, interactions, random);
+                int covered = newlyCovered(row, interactions);
+                if (covered > bestCovered) {
+                    best = row;
+                    bestCovered = covered;
+                }
+            }
+            for (var interaction : interactions) {
+                int index = interaction.index(best);
+                if (!interaction.covered()[index]) {
+                    interaction.covered()[index] = true;
+                    uncovered--;
+                }
+            }
+            rows.add(best);
+        }
+        return rows;
+    }
+
+    private static int[] candidate(int[] sizes, List<Interaction> interactions, Random random) {
+        int[] row = new int[sizes.length];
+        Arrays.fill(row, -1);
+        // start with a random uncovered combination
+        List<Interaction> open = interactions.stream().filter(i -> !allCovered(i)).toList();
+        var start = open.get(random.nextInt(open.size()));
+        List<Integer> uncoveredIndices = new ArrayList<>();
+        for (int i = 0; i < start.covered().length; i++) {
+            if (!start.covered()[i]) {
+                uncoveredIndices.add(i);
+            }
+        }
+        int index = uncoveredIndices.get(random.nextInt(uncoveredIndices.size()));
+        for (int i = start.dimensions().length - 1; i >= 0; i--) {
+            int dimension = start.dimensions()[i];
+            row[dimension] = index % sizes[dimension];
+            index /= sizes[dimension];
+        }
+        // fill the other dimensions in random order
+        List<Integer> dimensions = new ArrayList<>();
+        for (int d = 0; d < sizes.length; d++) {
+            if (row[d] == -1) {
+                dimensions.add(d);
+            }
+        }
+        Collections.shuffle(dimensions, random);
+        for (int dimension : dimensions) {
+            int bestValue = 0;
+            int bestCovered = -1;
+            int offset = random.nextInt(sizes[dimension]);
+            for (int v = 0; v < sizes[dimension]; v++) {
+                int value = (v + offset) % sizes[dimension];
+                row[dimension] = value;
+                int covered = 0;
+                for (var interaction : interactions) {
+                    if (interaction.contains(dimension) && interaction.isAssigned(row) && !interaction.covered()[interaction.index(row)]) {
+                        covered++;
+                    }
+                }
+                if (covered > bestCovered) {
+                    bestValue = value;
+                    bestCovered = covered;
+                }
+            }
+            row[dimension] = bestValue;
+        }
+        return row;
+    }
+
+    private static boolean allCovered(Interaction interaction) {
+        for (boolean covered : interaction.covered()) {
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int newlyCovered(int[] row, List<Interaction> interactions) {
+        int covered = 0;
+        for (var interaction : interactions) {
+            if (!interaction.covered()[interaction.index(row)]) {
+                covered++;
+            }
+        }
+        return covered;
+    }
+
+    private static void combinations(int n, int k, int start, int[] current, int size, Consumer<int[]> consumer) {
+        if (size == k) {
+            consumer.accept(current.clone());
+            return;
+        }
+        for (int i = start; i < n; i++) {
+            current[size] = i;
+            combinations(n, k, i + 1, current, size + 1, consumer);
+        }
+    }
+
+    static List<int[]> product(int[] sizes) {
+        List<int[]> rows = new ArrayList<>();
+        if (Arrays.stream(sizes).anyMatch(s -> s == 0)) {
+            return rows;
+        }
+        int[] row = new int[sizes.length];
+        while (true) {
+            rows.add(row.clone());
+            int dimension = sizes.length - 1;
+            while (dimension >= 0 && ++row[dimension] == sizes[dimension]) {
+                row[dimension] = 0;
+                dimension--;
+            }
+            if (dimension < 0) {
+                return rows;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Tracks the CPU time of a child process and its threads by polling /proc while the process runs
+ * <p>
+ * The CPU time of the last poll interval before the exit of the child is lost, the tracked times
+ * are therefore a lower bound. On systems without /proc only the process CPU time is tracked.
+ */
+class CpuTimeTracker implements AutoCloseable {
+
+    /**
+     * CPU times of a child process
+     *
+     * @param processNanos    CPU time of the whole process
+     * @param javaThreadNanos CPU time of the threads that are not known VM internal threads (GC, JIT, ...),
+     *                        which are the threads the samplers sample
+     * @param threads         number of threads seen
+     */
+    record CpuTime(long processNanos, long javaThreadNanos, int threads) {
+
+        static final CpuTime NONE = new CpuTime(0, 0, 0);
+
+        /**
+         * Number of samples a sampler with the given period should produce
+         */
+        long expectedSamples(double periodMillis) {
+            return periodMillis <= 0 ? 0 : (long) (javaThreadNanos / 1_000_000.0 / periodMillis);
+        }
+
+        static double coverage(long samples, long expectedSamples) {
+            return expectedSamples == 0 ? 0 : (double) samples / expectedSamples;
+        }
+
+        List<String> toCSV(Main.OptionSet options, JFRParser.Counts counts) {
+            long expectedCpuTimeSamples = expectedSamples(options.sampler().cpuTimeSamplePeriodMillis(options.samplingPeriod()));
+            long expectedOtherSamples = expectedSamples(options.sampler().otherSamplerPeriodMillis(options.samplingPeriod()));
+            return Stream.of(processNanos / 1_000_000, javaThreadNanos / 1_000_000, threads,
+                    expectedCpuTimeSamples, coverage(counts.validCpuTimeEvents, expectedCpuTimeSamples),
+                    expectedOtherSamples, coverage(counts.otherSamplerEvents, expectedOtherSamples)).map(Object::toString).toList();
+        }
+
+        static List<String> toCSVHeader() {
+            return List.of("process cpu time ms", "java thread cpu time ms", "threads",
+                    "expected cpu time samples", "cpu time sample coverage", "expected other sampler events", "other sampler coverage");
+        }
+    }
+
+    /**
+     * Prefixes of the (possibly truncated) names of VM internal threads that are not sampled
+     */
+    private static final List<String> VM_THREAD_PREFIXES = List.of("GC Thread", "G1 ", "VM ", "C1 CompilerThre",
+            "C2 CompilerThre", "ZWorker", "ZDirector", "ZDriver", "ZStat", "ZUnmapper", "Shenandoah", "JFR Thread Samp", "JFR CPU");
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private static final long NANOS_PER_TICK = 1_000_000_000L / clockTicksPerSecond();
+
+    private final ProcessHandle process;
+    private final Path procFolder;
+    private final Thread thread;
+    private record ThreadTime(long nanos, boolean vmThread) {
+    }
+
+    /**
+     * Last seen CPU time per thread id, threads that exited keep their last time
+     */
+    private final Map<Long, ThreadTime> threadTimes = new HashMap<>();
+    private long processNanos;
+    private volatile boolean closed;
+
+    CpuTimeTracker(ProcessHandle process) {
+        this.process = process;
+        this.procFolder = Path.of("/proc", String.valueOf(process.pid()));
+        this.thread = new Thread(this::run, "cpu-time-tracker");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed && process.isAlive()) {
+            poll();
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private synchronized void poll() {
+        long nanos = process.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+        processNanos = Math.max(processNanos, nanos);
+        if (!Files.isDirectory(procFolder)) {
+            return;
+        }
+        try (var tasks = Files.list(procFolder.resolve("task"))) {
+            tasks.forEach(task -> {
+                try {
+                    String stat = Files.readString(task.resolve("stat"));
+                    String name = stat.substring(stat.indexOf('(') + 1, stat.lastIndexOf(')'));
+                    // fields after the name, starting with the state (field 3), utime and stime are fields 14 and 15
+                    String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                    long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+                    boolean vmThread = VM_THREAD_PREFIXES.stream().anyMatch(name::startsWith);
+                    threadTimes.put(Long.parseLong(task.getFileName().toString()), new ThreadTime(ticks * NANOS_PER_TICK, vmThread));
+                } catch (IOException | RuntimeException e) {
+                    // thread exited while reading
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            // process exited while reading
+        }
+    }
+
+    /**
+     * The tracked CPU times, complete after {@link #close()}
+     */
+    synchronized CpuTime cpuTime() {
+        long javaThreadNanos = 0;
+        long threadNanos = 0;
+        for (var time : threadTimes.values()) {
+            threadNanos += time.nanos();
+            if (!time.vmThread()) {
+                javaThreadNanos += time.nanos();
+            }
+        }
+        if (threadTimes.isEmpty()) {
+            // no per-thread information, assume that all threads are sampled
+            javaThreadNanos = processNanos;
+        }
+        return new CpuTime(Math.max(processNanos, threadNanos), javaThreadNanos, threadTimes.size());
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        thread.join();
+    }
+
+    private static long clockTicksPerSecond() {
+        try {
+            var p = new ProcessBuilder("getconf", "CLK_TCK").redirectErrorStream(true).start();
+            String output = new String(p.getInputStream().readAllBytes()).trim();
+            if (p.waitFor() == 0) {
+                return Long.parseLong(output);
+            }
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+        }
+        return 100;
+    }
+}
@@ -0,0 +1,149 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Waits for a child process with a timeout, and if the child hangs, captures thread dumps, a mixed
+ * (Java and native) stack snapshot, the current recording and the hs_err file of the child before killing it.
+ * Also collects the hs_err files of crashed children.
+ */
+class HangWatchdog {
+
+    private static final int THREAD_DUMPS = 3;
+    private static final long THREAD_DUMP_INTERVAL_MILLIS = 1000;
+    private static final long TOOL_TIMEOUT_SECONDS = 60;
+
+    /**
+     * @param timeoutSeconds time after which the child is considered hung
+     * @param folder         folder to store the captured information of a hung or crashed child in
+     */
+    record Settings(long timeoutSeconds, Path folder) {
+    }
+
+    private final Settings settings;
+    private final String javaBinary;
+    private final Path runFolder;
+
+    /**
+     * @param javaBinary the java binary of the child, whose jcmd and jhsdb are used
+     * @param runFolder  the folder of the run, which the child writes its hs_err file to, see {@link #errorFileOption(Path)}
+     */
+    HangWatchdog(Settings settings, String javaBinary, Path runFolder) {
+        this.settings = settings;
+        this.javaBinary = javaBinary;
+        this.runFolder = runFolder;
+    }
+
+    /**
+     * The option for the child to write its hs_err file to the run folder, instead of its working directory or /tmp
+     */
+    static String errorFileOption(Path runFolder) {
+        return "-XX:ErrorFile=" + runFolder.toAbsolutePath().resolve("hs_err_pid%p.log");
+    }
+
+    /**
+     * Wait for the process to exit
+     *
+     * @return true if the process hung and was killed
+     */
+    boolean await(Process process, String name) throws InterruptedException {
+        if (process.waitFor(settings.timeoutSeconds(), TimeUnit.SECONDS)) {
+            return false;
+        }
+        System.err.println("Run " + name + " hangs after " + settings.timeoutSeconds() + "s, capturing its state");
+        Path folder = settings.folder().resolve(name + "_" + process.pid());
+        try {
+            Files.createDirectories(folder);
+            for (int i = 0; i < THREAD_DUMPS && process.isAlive(); i++) {
+                if (i > 0) {
+                    Thread.sleep(THREAD_DUMP_INTERVAL_MILLIS);
+                }
+                runTool(folder.resolve("thread-dump-" + i + ".txt"), tool("jcmd"), String.valueOf(process.pid()), "Thread.print", "-l");
+            }
+            runTool(folder.resolve("mixed-stack.txt"), tool("jhsdb"), "jstack", "--mixed", "--pid", String.valueOf(process.pid()));
+            // the recordings of a killed child are lost otherwise
+            runTool(folder.resolve("jfr-dump.txt"), tool("jcmd"), String.valueOf(process.pid()), "JFR.dump",
+                    "filename=" + folder.toAbsolutePath().resolve("recording.jfr"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        process.destroyForcibly();
+        process.waitFor();
+        collectHsErr(process.pid(), folder);
+        System.err.println("Killed hung run " + name + ", captured state in " + folder);
+        return true;
+    }
+
+    /**
+     * Copy the hs_err file of the exited process, if it crashed
+     *
+     * @param startMillis start of the process, older hs_err files belong to earlier processes with the same pid
+     * @return true if the process crashed
+     */
+    boolean collectCrash(Process process, String name, long startMillis) {
+        boolean hsErrWritten = hsErrFiles(process.pid()).stream().anyMatch(hsErr -> {
+            try {
+                return Files.getLastModifiedTime(hsErr).toMillis() >= startMillis;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+        // killed by a signal (SIGABRT, SIGSEGV, SIGBUS, ...), if the hs_err file couldn't be written
+        if (!hsErrWritten && process.exitValue() <= 128) {
+            return false;
+        }
+        Path folder = settings.folder().resolve(name + "_" + process.pid());
+        try {
+            Files.createDirectories(folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        collectHsErr(process.pid(), folder);
+        System.err.println("Run " + name + " crashed with exit code " + process.exitValue() + ", see " + folder);
+        return true;
+    }
+
+    /**
+     * The tool next to the java binary, or from the PATH
+     */
+    private String tool(String name) {
+        Path path = Path.of(javaBinary).resolveSibling(name);
+        return Files.isExecutable(path) ? path.toString() : name;
+    }
+
+    private static void runTool(Path output, String... command) throws InterruptedException {
+        try {
+            var process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output.toFile()).start();
+            if (!process.waitFor(TOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                // the tools can hang on a broken VM too
+                process.destroyForcibly();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not run " + String.join(" ", command) + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The JVM falls back to its working directory and /tmp if it can't write to the run folder
+     */
+    private List<Path> hsErrFiles(long pid) {
+        String name = "hs_err_pid" + pid + ".log";
+        return Stream.of(runFolder.resolve(name), Path.of(name), Path.of("/tmp", name)).filter(Files::exists).toList();
+    }
+
+    private void collectHsErr(long pid, Path folder) {
+        for (Path hsErr : hsErrFiles(pid)) {
+            try {
+                Files.copy(hsErr, folder.resolve(hsErr.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Iteration times per benchmark of a single run, as reported by the benchmark harness
+ */
+record IterationTimes(Map<String, List<IterationTimes.Iteration>> iterations) {
+
+    /**
+     * Name of the file in the scratch folder that the benchmarks write their iteration times to,
+     * a CSV file with (at least) the columns {@code benchmark} and {@code duration_ns},
+     * as written by renaissance's {@code --csv} option. If the file also has renaissance's
+     * {@code uptime_ns} and {@code vm_start_unix_ms} columns, the iterations can be located in time.
+     */
+    static final String FILE_NAME = "iterations.csv";
+
+    static final IterationTimes NONE = new IterationTimes(Map.of());
+
+    /**
+     * @param startEpochNanos start of the iteration since the epoch, -1 if unknown
+     */
+    record Iteration(long durationNanos, long startEpochNanos) {
+
+        long endEpochNanos() {
+            return startEpochNanos + durationNanos;
+        }
+    }
+
+    static IterationTimes read(Path csvFile) {
+        if (!Files.exists(csvFile)) {
+            return NONE;
+        }
+        try {
+            List<String> lines = Files.readAllLines(csvFile);
+            if (lines.isEmpty()) {
+                return NONE;
+            }
+            List<String> header = List.of(lines.get(0).split(","));
+            int benchmarkColumn = header.indexOf("benchmark");
+            int durationColumn = header.indexOf("duration_ns");
+            // renaissance's uptime is the JVM uptime at the start of the iteration
+            int uptimeColumn = header.indexOf("uptime_ns");
+            int vmStartColumn = header.indexOf("vm_start_unix_ms");
+            if (benchmarkColumn == -1 || durationColumn == -1) {
+                System.err.println("Unsupported iteration times file " + csvFile + ": " + lines.get(0));
+                return NONE;
+            }
+            Map<String, List<Iteration>> iterations = new LinkedHashMap<>();
+            for (String line : lines.subList(1, lines.size())) {
+                String[] columns = line.split(",");
+                if (columns.length <= Math.max(benchmarkColumn, durationColumn)) {
+                    continue;
+                }
+                long start = -1;
+                if (uptimeColumn != -1 && vmStartColumn != -1 && columns.length > Math.max(uptimeColumn, vmStartColumn)) {
+                    start = Long.parseLong(columns[vmStartColumn].trim()) * 1_000_000 + Long.parseLong(columns[uptimeColumn].trim());
+                }
+                iterations.computeIfAbsent(columns[benchmarkColumn], b -> new ArrayList<>())
+                        .add(new Iteration(Long.parseLong(columns[durationColumn].trim()), start));
+            }
+            return new IterationTimes(iterations);
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return NONE;
+        }
+    }
+
+    Map<String, List<Long>> durationNanos() {
+        Map<String, List<Long>> nanos = new LinkedHashMap<>();
+        iterations.forEach((benchmark, list) -> nanos.put(benchmark, list.stream().map(Iteration::durationNanos).toList()));
+        return nanos;
+    }
+
+    /**
+     * The located iterations of all benchmarks, to attribute events to benchmarks
+     */
+    Intervals intervals() {
+        List<String> names = new ArrayList<>(iterations.keySet());
+        List<long[]> located = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            for (var iteration : iterations.get(names.get(i))) {
+                if (iteration.startEpochNanos() != -1) {
+                    located.add(new long[]{iteration.startEpochNanos(), iteration.endEpochNanos(), i});
+                }
+            }
+        }
+        located.sort(Comparator.comparingLong(l -> l[0]));
+        var intervals = new Intervals(names, new long[located.size()], new long[located.size()], new int[located.size()]);
+        for (int i = 0; i < located.size(); i++) {
+            intervals.startEpochNanos[i] = located.get(i)[0];
+            intervals.endEpochNanos[i] = located.get(i)[1];
+            intervals.benchmarks[i] = (int) located.get(i)[2];
+        }
+        return intervals;
+    }
+
+    /**
+     * Time intervals of iterations sorted by their start, each belonging to a benchmark
+     *
+     * @param benchmarks index into names per interval
+     */
+    record Intervals(List<String> names, long[] startEpochNanos, long[] endEpochNanos, int[] benchmarks) {
+
+        static final Intervals NONE = new Intervals(List.of(), new long[0], new long[0], new int[0]);
+
+        boolean isEmpty() {
+            return startEpochNanos.length == 0;
+        }
+
+        /**
+         * Index of the benchmark that ran at the time, -1 if none did (e.g. between iterations)
+         */
+        int benchmarkAt(long epochNanos) {
+            int low = 0;
+            int high = startEpochNanos.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (startEpochNanos[middle] <= epochNanos) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found != -1 && epochNanos < endEpochNanos[found] ? benchmarks[found] : -1;
+        }
+    }
+}
@@ -0,0 +1,667 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Streaming parser for the sampler related events of JFR files.
+ * <p>
+ * Events are read one at a time, so only the constant pools of the current chunk are kept in memory.
+ * Multiple files and the chunks of each file are parsed in parallel, as every chunk is self-contained.
+ */
+class JFRParser {
+
+    private final IterationTimes.Intervals intervals;
+    /**
+     * Null if the stack distributions should not be collected
+     */
+    private final StackDistribution.MethodIds methodIds;
+    /**
+     * Null if no timeline should be collected
+     */
+    private final Timeline.Buckets timelineBuckets;
+    /**
+     * Null if the samples are attributed to the intervals while parsing
+     */
+    private final Timeline.Buckets attributionBuckets;
+    /**
+     * Whether to collect the sampler events in {@link Archive.Fragment}s
+     */
+    private final boolean archive;
+
+    /**
+     * @param intervals          iterations of the benchmarks, to attribute the samples to the benchmarks
+     * @param compareStacks      collect the stack distributions of the CPU time and the other samplers
+     * @param timelineBuckets    buckets of the timeline to collect, null for none
+     * @param attributionBuckets buckets to collect the samples in, if the iterations are not known while parsing,
+     *                           see {@link Counts#attribute(IterationTimes.Intervals)}
+     * @param archive            collect the sampler events for an {@link Archive.Writer}, see {@link Counts#archive}
+     */
+    JFRParser(IterationTimes.Intervals intervals, boolean compareStacks, Timeline.Buckets timelineBuckets,
+              Timeline.Buckets attributionBuckets, boolean archive) {
+        this.intervals = intervals;
+        this.methodIds = compareStacks ? new StackDistribution.MethodIds() : null;
+        this.timelineBuckets = timelineBuckets;
+        this.attributionBuckets = attributionBuckets;
+        this.archive = archive;
+    }
+
+    JFRParser(IterationTimes.Intervals intervals, boolean compareStacks, Timeline.Buckets timelineBuckets,
+              Timeline.Buckets attributionBuckets) {
+        this(intervals, compareStacks, timelineBuckets, attributionBuckets, false);
+    }
+
+    JFRParser(IterationTimes.Intervals intervals, boolean compareStacks, Timeline.Buckets timelineBuckets) {
+        this(intervals, compareStacks, timelineBuckets, null);
+    }
+
+    JFRParser() {
+        this(IterationTimes.Intervals.NONE, false, null);
+    }
+
+    /**
+     * "FLR\0", the magic bytes at the start of every chunk
+     */
+    private static final int CHUNK_MAGIC = 0x464C5200;
+    private static final int CHUNK_HEADER_PREFIX_SIZE = 16;
+
+    /**
+     * Mergeable event counters of one or more parsed JFR files
+     */
+    static class Counts {
+        int otherSamplerEvents;
+        int validCpuTimeEvents;
+        int overflowedCpuTimeEvents;
+        int emptyCpuTimeEvents;
+        /**
+         * CPU time samples with a frame whose method or class can't be resolved, e.g. because the class was unloaded
+         */
+        int unresolvedFrameCpuTimeEvents;
+        /**
+         * Number of all events read, not just the sampler events
+         */
+        long events;
+        /**
+         * CPU time reported by the synthetic workload, 0 for other benchmarks
+         */
+        long workloadCpuTimeNanos;
+        long parseNanos;
+        int files;
+        int erroneousFiles;
+        /**
+         * Sample counts per benchmark, only available if the iterations of the benchmarks could be located
+         */
+        BenchmarkCounts benchmarkCounts = new BenchmarkCounts();
+        StackDistribution cpuTimeStacks = new StackDistribution();
+        StackDistribution otherSamplerStacks = new StackDistribution();
+        /**
+         * Null if no timeline was collected
+         */
+        Timeline timeline;
+        /**
+         * Samples in short buckets, to attribute them to the benchmarks once their iterations are known,
+         * null if the samples were attributed while parsing
+         */
+        Timeline attribution;
+        PauseHistograms pauses = new PauseHistograms();
+        /**
+         * The sampler events of the parsed chunks in order, null if the parser doesn't archive
+         */
+        List<Archive.Fragment> archive;
+
+        void add(Counts other) {
+            otherSamplerEvents += other.otherSamplerEvents;
+            validCpuTimeEvents += other.validCpuTimeEvents;
+            overflowedCpuTimeEvents += other.overflowedCpuTimeEvents;
+            emptyCpuTimeEvents += other.emptyCpuTimeEvents;
+            unresolvedFrameCpuTimeEvents += other.unresolvedFrameCpuTimeEvents;
+            events += other.events;
+            workloadCpuTimeNanos += other.workloadCpuTimeNanos;
+            parseNanos += other.parseNanos;
+            files += other.files;
+            erroneousFiles += other.erroneousFiles;
+            benchmarkCounts.add(other.benchmarkCounts);
+            cpuTimeStacks.add(other.cpuTimeStacks);
+            otherSamplerStacks.add(other.otherSamplerStacks);
+            pauses.add(other.pauses);
+            if (other.timeline != null) {
+                if (timeline == null) {
+                    timeline = new Timeline(other.timeline.buckets());
+                }
+                timeline.add(other.timeline);
+            }
+            if (other.attribution != null) {
+                if (attribution == null) {
+                    attribution = new Timeline(other.attribution.buckets());
+                }
+                attribution.add(other.attribution);
+            }
+            if (other.archive != null) {
+                if (archive == null) {
+                    archive = new ArrayList<>();
+                }
+                archive.addAll(other.archive);
+            }
+        }
+
+        /**
+         * Attribute the samples collected in {@link #attribution} to the benchmarks
+         */
+        void attribute(IterationTimes.Intervals intervals) {
+            if (attribution != null) {
+                attribution.attributeTo(intervals, benchmarkCounts);
+                attribution = null;
+            }
+        }
+
+        StackDistribution.Comparison stackComparison() {
+            return new StackDistribution.Comparison(cpuTimeStacks, otherSamplerStacks);
+        }
+
+        boolean allFilesErroneous() {
+            return erroneousFiles == files;
+        }
+
+        double eventsPerSecond() {
+            return parseNanos == 0 ? 0 : events * 1_000_000_000.0 / parseNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Counts[otherSamplerEvents=" + otherSamplerEvents + ", validCpuTimeEvents=" + validCpuTimeEvents +
+                    ", overflowedCpuTimeEvents=" + overflowedCpuTimeEvents + ", emptyCpuTimeEvents=" + emptyCpuTimeEvents +
+                    ", unresolvedFrameCpuTimeEvents=" + unresolvedFrameCpuTimeEvents +
+                    ", events=" + events + ", workloadCpuTimeNanos=" + workloadCpuTimeNanos + ", eventsPerSecond=" + (long) eventsPerSecond() + ", files=" + files +
+                    ", erroneousFiles=" + erroneousFiles + "]";
+        }
+    }
+
+    /**
+     * Sample counts per benchmark index of {@link IterationTimes.Intervals}
+     */
+    static class BenchmarkCounts {
+        int[] validCpuTimeEvents = new int[0];
+        int[] emptyCpuTimeEvents = new int[0];
+        int[] overflowedCpuTimeEvents = new int[0];
+        int[] otherSamplerEvents = new int[0];
+
+        private void ensureSize(int size) {
+            if (validCpuTimeEvents.length < size) {
+                validCpuTimeEvents = Arrays.copyOf(validCpuTimeEvents, size);
+                emptyCpuTimeEvents = Arrays.copyOf(emptyCpuTimeEvents, size);
+                overflowedCpuTimeEvents = Arrays.copyOf(overflowedCpuTimeEvents, size);
+                otherSamplerEvents = Arrays.copyOf(otherSamplerEvents, size);
+            }
+        }
+
+        void addValid(int benchmark) {
+            ensureSize(benchmark + 1);
+            validCpuTimeEvents[benchmark]++;
+        }
+
+        void addEmpty(int benchmark) {
+            ensureSize(benchmark + 1);
+            emptyCpuTimeEvents[benchmark]++;
+        }
+
+        void addOverflowed(int benchmark, int lostSamples) {
+            ensureSize(benchmark + 1);
+            overflowedCpuTimeEvents[benchmark] += lostSamples;
+        }
+
+        void addOther(int benchmark) {
+            ensureSize(benchmark + 1);
+            otherSamplerEvents[benchmark]++;
+        }
+
+        void add(int benchmark, int other, int valid, int overflowed, int empty) {
+            ensureSize(benchmark + 1);
+            otherSamplerEvents[benchmark] += other;
+            validCpuTimeEvents[benchmark] += valid;
+            overflowedCpuTimeEvents[benchmark] += overflowed;
+            emptyCpuTimeEvents[benchmark] += empty;
+        }
+
+        void add(BenchmarkCounts other) {
+            ensureSize(other.validCpuTimeEvents.length);
+            for (int i = 0; i < other.validCpuTimeEvents.length; i++) {
+                validCpuTimeEvents[i] += other.validCpuTimeEvents[i];
+                emptyCpuTimeEvents[i] += other.emptyCpuTimeEvents[i];
+                overflowedCpuTimeEvents[i] += other.overflowedCpuTimeEvents[i];
+                otherSamplerEvents[i] += other.otherSamplerEvents[i];
+            }
+        }
+
+        /**
+         * One row per benchmark: benchmark, other sampler events, valid, overflowed and empty cpu time events, reasonable
+         */
+        List<List<String>> toCSV(List<String> names) {
+            ensureSize(names.size());
+            List<List<String>> rows = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                rows.add(Stream.of(names.get(i), otherSamplerEvents[i], validCpuTimeEvents[i], overflowedCpuTimeEvents[i], emptyCpuTimeEvents[i],
+                        validCpuTimeEvents[i] >= 100 && BenchmarkRunner.Result.hasReasonableRates(validCpuTimeEvents[i], overflowedCpuTimeEvents[i], emptyCpuTimeEvents[i]))
+                        .map(Object::toString).toList());
+            }
+            return rows;
+        }
+
+        static List<String> toCSVHeader() {
+            return List.of("iteration benchmark", "other sampler events", "valid cpu time events", "overflowed cpu time events", "empty cpu time events", "reasonable");
+        }
+    }
+
+    /**
+     * Ids of the event types we're interested in, -1 if the type is not part of the recording
+     */
+    record EventTypeIds(long cpuTimeSample, long cpuTimeSampleLoss, long executionSample, long nativeMethodSample,
+                        long syntheticWorkload, long garbageCollection, long gcPhasePause, long safepointBegin,
+                        long safepointStateSynchronization, long executeVMOperation) {
+
+        static EventTypeIds resolve(List<EventType> types) {
+            return new EventTypeIds(idOf(types, "jdk.CPUTimeSample"), idOf(types, "jdk.CPUTimeSampleLoss"),
+                    idOf(types, "jdk.ExecutionSample"), idOf(types, "jdk.NativeMethodSample"),
+                    idOf(types, SyntheticWorkload.EVENT_NAME), idOf(types, "jdk.GarbageCollection"),
+                    idOf(types, "jdk.GCPhasePause"), idOf(types, "jdk.SafepointBegin"),
+                    idOf(types, "jdk.SafepointStateSynchronization"), idOf(types, "jdk.ExecuteVMOperation"));
+        }
+
+        private static long idOf(List<EventType> types, String name) {
+            return types.stream().filter(t -> t.getName().equals(name)).mapToLong(EventType::getId).findFirst().orElse(-1);
+        }
+    }
+
+    /**
+     * A byte range of a JFR file that contains exactly one chunk
+     */
+    record Chunk(Path file, long offset, long size) {
+    }
+
+    /**
+     * Split the file at its chunk boundaries, a chunk with a broken size (e.g. of a crashed JVM)
+     * extends to the end of the file
+     */
+    static List<Chunk> chunks(Path jfrFile) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (var channel = FileChannel.open(jfrFile, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_PREFIX_SIZE);
+            while (offset < fileSize) {
+                header.clear();
+                int read = channel.read(header, offset);
+                long size = fileSize - offset;
+                if (read == CHUNK_HEADER_PREFIX_SIZE && header.getInt(0) == CHUNK_MAGIC) {
+                    long chunkSize = header.getLong(8);
+                    if (chunkSize > 0 && chunkSize <= size) {
+                        size = chunkSize;
+                    }
+                }
+                chunks.add(new Chunk(jfrFile, offset, size));
+                offset += size;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Parse all files in parallel, the parse time of the returned counts is the wall clock time
+     */
+    Counts parseAll(List<Path> jfrFiles) {
+        long start = System.nanoTime();
+        var counts = ForkJoinPool.commonPool().invoke(new FilesTask(jfrFiles));
+        counts.parseNanos = System.nanoTime() - start;
+        return counts;
+    }
+
+    private class FilesTask extends RecursiveTask<Counts> {
+        private final List<Path> jfrFiles;
+
+        FilesTask(List<Path> jfrFiles) {
+            this.jfrFiles = jfrFiles;
+        }
+
+        @Override
+        protected Counts compute() {
+            if (jfrFiles.size() == 1) {
+                return new FileTask(jfrFiles.get(0)).compute();
+            }
+            var counts = new Counts();
+            if (jfrFiles.isEmpty()) {
+                return counts;
+            }
+            int middle = jfrFiles.size() / 2;
+            var left = new FilesTask(jfrFiles.subList(0, middle));
+            var right = new FilesTask(jfrFiles.subList(middle, jfrFiles.size()));
+            ForkJoinTask.invokeAll(left, right);
+            counts.add(left.join());
+            counts.add(right.join());
+            return counts;
+        }
+    }
+
+    private class FileTask extends RecursiveTask<Counts> {
+        private final Path jfrFile;
+
+        FileTask(Path jfrFile) {
+            this.jfrFile = jfrFile;
+        }
+
+        @Override
+        protected Counts compute() {
+            List<Chunk> chunks;
+            try {
+                chunks = Files.exists(jfrFile) ? chunks(jfrFile) : List.of();
+            } catch (IOException e) {
+                // parsing the whole file reports the problem if it isn't readable at all
+                System.err.println("Could not split " + jfrFile + " into chunks: " + e);
+                chunks = List.of();
+            }
+            // single chunk files are parsed in place, only multi chunk files are split
+            if (chunks.size() <= 1) {
+                return parse(jfrFile);
+            }
+            var counts = new Counts();
+            for (var task : ForkJoinTask.invokeAll(chunks.stream().map(ChunkTask::new).toList())) {
+                counts.add(task.join());
+            }
+            // the chunks together form one file, which is erroneous if any of its chunks is
+            counts.files = 1;
+            counts.erroneousFiles = Math.min(counts.erroneousFiles, 1);
+            return counts;
+        }
+    }
+
+    private class ChunkTask extends RecursiveTask<Counts> {
+        private final Chunk chunk;
+
+        ChunkTask(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        /**
+         * Copy the chunk into its own file next to the recording, as {@link RecordingFile} can only read whole files,
+         * so that the copies count towards the disk space of the run and are deleted right after parsing them
+         */
+        @Override
+        protected Counts compute() {
+            Path chunkFile = null;
+            try {
+                var folder = chunk.file().toAbsolutePath().getParent();
+                chunkFile = Files.createTempFile(folder, "chunk", ".jfr");
+                try (var in = FileChannel.open(chunk.file(), StandardOpenOption.READ);
+                     var out = FileChannel.open(chunkFile, StandardOpenOption.WRITE)) {
+                    long transferred = 0;
+                    while (transferred < chunk.size()) {
+                        transferred += in.transferTo(chunk.offset() + transferred, chunk.size() - transferred, out);
+                    }
+                }
+                return parse(chunkFile);
+            } catch (IOException e) {
+                return erroneous(chunk.file(), "chunk at " + chunk.offset() + " can't be copied: " + e);
+            } finally {
+                if (chunkFile != null) {
+                    try {
+                        Files.deleteIfExists(chunkFile);
+                    } catch (IOException e) {
+                        System.err.println("Could not delete the chunk copy " + chunkFile + ": " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Empty counts with the timelines of this parser
+     */
+    Counts newCounts() {
+        Counts counts = new Counts();
+        if (timelineBuckets != null) {
+            counts.timeline = new Timeline(timelineBuckets);
+        }
+        if (attributionBuckets != null) {
+            counts.attribution = new Timeline(attributionBuckets);
+        }
+        return counts;
+    }
+
+    /**
+     * Null if the stack distributions are not collected
+     */
+    StackDistribution.MethodIds methodIds() {
+        return methodIds;
+    }
+
+    Counts parse(Path jfrFile) {
+        Counts counts = newCounts();
+        counts.files = 1;
+        if (!Files.exists(jfrFile)) {
+            return erroneous(jfrFile, "does not exist");
+        }
+        long start = System.nanoTime();
+        var fragment = archive ? new Archive.Fragment() : null;
+        if (fragment != null) {
+            counts.archive = new ArrayList<>(List.of(fragment));
+        }
+        try {
+            if (Files.size(jfrFile) == 0) {
+                return erroneous(jfrFile, "is empty");
+            }
+            try (var recording = new RecordingFile(jfrFile)) {
+                var ids = EventTypeIds.resolve(recording.readEventTypes());
+                var methodCache = methodIds == null ? null : methodIds.chunkCache();
+                while (recording.hasMoreEvents()) {
+                    count(recording.readEvent(), ids, counts, methodCache, fragment);
+                }
+            }
+        } catch (IOException e) {
+            // keep the counts of the events before the error
+            System.err.println("File " + jfrFile + " can't be read completely: " + e);
+            counts.erroneousFiles = 1;
+        } finally {
+            if (fragment != null) {
+                fragment.release();
+            }
+            counts.parseNanos = System.nanoTime() - start;
+        }
+        return counts;
+    }
+
+    /**
+     * Report the problem and return the counts of an erroneous file without events
+     */
+    private Counts erroneous(Path jfrFile, String problem) {
+        System.err.println("File " + jfrFile + " " + problem);
+        Counts counts = newCounts();
+        counts.files = 1;
+        counts.erroneousFiles = 1;
+        return counts;
+    }
+
+    /**
+     * @param fragment collects the sampler events for the archive, null if the parser doesn't archive
+     */
+    private void count(RecordedEvent event, EventTypeIds ids, Counts counts, Map<RecordedMethod, Integer> methodCache,
+                       Archive.Fragment fragment) {
+        counts.events++;
+        long id = event.getEventType().getId();
+        if (id == ids.cpuTimeSample()) {
+            // only the CPU time samples need their stack trace
+            var stackTrace = event.getStackTrace();
+            long epochNanos = epochNanos(event.getStartTime());
+            boolean valid = stackTrace != null && !stackTrace.getFrames().isEmpty();
+            countCpuTimeSample(counts, epochNanos, valid, valid && hasUnresolvedFrame(stackTrace));
+            if (methodCache != null && valid) {
+                counts.cpuTimeStacks.add(stackTrace, topFrame(stackTrace, methodCache));
+            }
+            if (fragment != null) {
+                fragment.addCpuTimeSample(epochNanos, stackTrace);
+            }
+        } else if (id == ids.executionSample() || id == ids.nativeMethodSample()) {
+            long epochNanos = epochNanos(event.getStartTime());
+            countOtherSample(counts, epochNanos);
+            if (methodCache != null || fragment != null) {
+                var stackTrace = event.getStackTrace();
+                if (methodCache != null && stackTrace != null) {
+                    counts.otherSamplerStacks.add(stackTrace, topFrame(stackTrace, methodCache));
+                }
+                if (fragment != null) {
+                    fragment.addOtherSample(epochNanos, stackTrace);
+                }
+            }
+        } else if (id == ids.cpuTimeSampleLoss()) {
+            long epochNanos = epochNanos(event.getStartTime());
+            int lostSamples = event.getInt("lostSamples");
+            countLostSamples(counts, epochNanos, lostSamples);
+            if (fragment != null) {
+                fragment.addLostSamples(epochNanos, lostSamples);
+            }
+        } else if (id == ids.syntheticWorkload()) {
+            long cpuTime = event.getLong("cpuTime");
+            counts.workloadCpuTimeNanos += cpuTime;
+            if (fragment != null) {
+                fragment.addWorkload(epochNanos(event.getStartTime()), cpuTime);
+            }
+        } else if (id == ids.garbageCollection()) {
+            counts.pauses.record(PauseHistograms.Kind.GC_PAUSE, event.getDuration("sumOfPauses").toNanos());
+            if (counts.timeline != null) {
+                counts.timeline.addGC(epochNanos(event.getStartTime()), event.getDuration().toNanos());
+            }
+        } else if (id == ids.gcPhasePause()) {
+            if (counts.timeline != null) {
+                counts.timeline.addGCPause(epochNanos(event.getStartTime()), event.getDuration().toNanos());
+            }
+        } else if (id == ids.safepointBegin()) {
+            if (counts.timeline != null) {
+                counts.timeline.addSafepoint(epochNanos(event.getStartTime()));
+            }
+        } else if (id == ids.safepointStateSynchronization()) {
+            // lasts from the start of the synchronization till all threads are stopped
+            counts.pauses.record(PauseHistograms.Kind.SAFEPOINT_SYNCHRONIZATION, event.getDuration().toNanos());
+        } else if (id == ids.executeVMOperation() && event.getBoolean("safepoint")) {
+            counts.pauses.record(PauseHistograms.Kind.VM_OPERATION, event.getDuration().toNanos());
+        }
+    }
+
+    /**
+     * @param valid           whether the sample has a non-empty stack trace
+     * @param unresolvedFrame whether a frame of the stack trace can't be resolved
+     */
+    void countCpuTimeSample(Counts counts, long epochNanos, boolean valid, boolean unresolvedFrame) {
+        int benchmark = benchmarkAt(epochNanos);
+        if (valid) {
+            counts.validCpuTimeEvents++;
+            if (unresolvedFrame) {
+                counts.unresolvedFrameCpuTimeEvents++;
+            }
+            if (benchmark != -1) {
+                counts.benchmarkCounts.addValid(benchmark);
+            }
+            if (counts.timeline != null) {
+                counts.timeline.addValid(epochNanos);
+            }
+            if (counts.attribution != null) {
+                counts.attribution.addValid(epochNanos);
+            }
+        } else {
+            counts.emptyCpuTimeEvents++;
+            if (benchmark != -1) {
+                counts.benchmarkCounts.addEmpty(benchmark);
+            }
+            if (counts.timeline != null) {
+                counts.timeline.addEmpty(epochNanos);
+            }
+            if (counts.attribution != null) {
+                counts.attribution.addEmpty(epochNanos);
+            }
+        }
+    }
+
+    /**
+     * Count a sample of the standard JFR samplers
+     */
+    void countOtherSample(Counts counts, long epochNanos) {
+        counts.otherSamplerEvents++;
+        int benchmark = benchmarkAt(epochNanos);
+        if (benchmark != -1) {
+            counts.benchmarkCounts.addOther(benchmark);
+        }
+        if (counts.timeline != null) {
+            counts.timeline.addOther(epochNanos);
+        }
+        if (counts.attribution != null) {
+            counts.attribution.addOther(epochNanos);
+        }
+    }
+
+    void countLostSamples(Counts counts, long epochNanos, int lostSamples) {
+        counts.overflowedCpuTimeEvents += lostSamples;
+        int benchmark = benchmarkAt(epochNanos);
+        if (benchmark != -1) {
+            counts.benchmarkCounts.addOverflowed(benchmark, lostSamples);
+        }
+        if (counts.timeline != null) {
+            counts.timeline.addLost(epochNanos, lostSamples);
+        }
+        if (counts.attribution != null) {
+            counts.attribution.addLost(epochNanos, lostSamples);
+        }
+    }
+
+    static boolean hasUnresolvedFrame(RecordedStackTrace stackTrace) {
+        for (var frame : stackTrace.getFrames()) {
+            if (isUnresolved(frame.getMethod())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the method or its class couldn't be resolved, e.g. because the class was unloaded
+     */
+    static boolean isUnresolved(RecordedMethod method) {
+        return method == null || method.getName() == null || method.getType() == null || method.getType().getName() == null;
+    }
+
+    /**
+     * @return the id of the top frame, -1 for empty stacks and unresolved top frames
+     */
+    private int topFrame(RecordedStackTrace stackTrace, Map<RecordedMethod, Integer> methodCache) {
+        var frames = stackTrace.getFrames();
+        if (frames.isEmpty() || isUnresolved(frames.get(0).getMethod())) {
+            return -1;
+        }
+        return methodIds.idOf(frames.get(0).getMethod(), methodCache);
+    }
+
+    private int benchmarkAt(long epochNanos) {
+        if (intervals.isEmpty()) {
+            return -1;
+        }
+        return intervals.benchmarkAt(epochNanos);
+    }
+
+    static long epochNanos(Instant time) {
+        return time.getEpochSecond() * 1_000_000_000L + time.getNano();
+    }
+}
@@ -0,0 +1,176 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.consumer.EventStream;
+import jdk.jfr.consumer.RecordedEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streams the JFR repository of a running child JVM and aborts the run
+ * if the CPU time samples are unreasonable for a sustained period
+ */
+class LiveMonitor implements AutoCloseable {
+
+    /**
+     * @param windowSeconds length of a window
+     * @param windows       number of consecutive unreasonable windows after which the run is aborted
+     */
+    record Settings(int windowSeconds, int windows) {
+    }
+
+    /**
+     * Notified by the monitor thread after every window
+     */
+    interface Listener {
+        void window(long validEvents, long lostEvents, long emptyEvents, long windowMillis);
+    }
+
+    /**
+     * Windows with fewer samples are not judged
+     */
+    private static final int MIN_WINDOW_SAMPLES = 100;
+
+    private final Settings settings;
+    private final Path repositoryBase;
+    private final Runnable abort;
+    private final Listener listener;
+    private final Thread thread;
+
+    // only accessed by the monitor thread till it is joined
+    private long validEvents;
+    private long emptyEvents;
+    private long lostEvents;
+    private long windowValidEvents;
+    private long windowEmptyEvents;
+    private long windowLostEvents;
+    private long windowStart;
+    private int unreasonableWindows;
+
+    private volatile EventStream stream;
+    private volatile boolean closed;
+    private volatile boolean aborted;
+
+    /**
+     * @param repositoryBase the folder passed as {@code repository} to the child,
+     *                       the child creates its actual repository inside
+     * @param abort          called once when the run should be aborted
+     * @param listener       notified after every window, null for none
+     */
+    LiveMonitor(Settings settings, Path repositoryBase, Runnable abort, Listener listener) {
+        this.settings = settings;
+        this.repositoryBase = repositoryBase;
+        this.abort = abort;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "live-monitor");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean aborted() {
+        return aborted;
+    }
+
+    private void run() {
+        try {
+            Path repository = awaitRepository();
+            if (repository == null) {
+                return;
+            }
+            try (var stream = EventStream.openRepository(repository)) {
+                this.stream = stream;
+                if (closed) {
+                    return;
+                }
+                stream.onEvent("jdk.CPUTimeSample", this::onCPUTimeSample);
+                stream.onEvent("jdk.CPUTimeSampleLoss", e -> {
+                    int lost = e.getInt("lostSamples");
+                    lostEvents += lost;
+                    windowLostEvents += lost;
+                });
+                stream.onFlush(this::checkWindow);
+                windowStart = System.currentTimeMillis();
+                stream.start();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private Path awaitRepository() throws InterruptedException, IOException {
+        while (!closed) {
+            if (Files.isDirectory(repositoryBase)) {
+                try (var dirs = Files.list(repositoryBase)) {
+                    var repository = dirs.filter(Files::isDirectory).findFirst();
+                    if (repository.isPresent()) {
+                        return repository.get();
+                    }
+                }
+            }
+            Thread.sleep(100);
+        }
+        return null;
+    }
+
+    private void onCPUTimeSample(RecordedEvent event) {
+        var stackTrace = event.getStackTrace();
+        if (stackTrace != null && !stackTrace.getFrames().isEmpty()) {
+            validEvents++;
+            windowValidEvents++;
+        } else {
+            emptyEvents++;
+            windowEmptyEvents++;
+        }
+    }
+
+    private void checkWindow() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart < settings.windowSeconds() * 1000L) {
+            return;
+        }
+        if (windowValidEvents + windowEmptyEvents + windowLostEvents >= MIN_WINDOW_SAMPLES) {
+            if (BenchmarkRunner.Result.hasReasonableRates(windowValidEvents, windowLostEvents, windowEmptyEvents)) {
+                unreasonableWindows = 0;
+            } else {
+                unreasonableWindows++;
+            }
+        }
+        if (unreasonableWindows >= settings.windows() && !aborted) {
+            aborted = true;
+            System.err.println("Aborting run, " + unreasonableWindows + " consecutive windows with unreasonable CPU time samples: " + this);
+            abort.run();
+        }
+        if (listener != null) {
+            listener.window(windowValidEvents, windowLostEvents, windowEmptyEvents, now - windowStart);
+        }
+        windowValidEvents = 0;
+        windowEmptyEvents = 0;
+        windowLostEvents = 0;
+        windowStart = now;
+    }
+
+    /**
+     * Stop monitoring, the counts are accessible afterward
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        var stream = this.stream;
+        if (stream != null) {
+            stream.close();
+        }
+        thread.join();
+    }
+
+    @Override
+    public String toString() {
+        return "LiveMonitor[validEvents=" + validEvents + ", emptyEvents=" + emptyEvents + ", lostEvents=" + lostEvents + "]";
+    }
+}
@@ -2,6 +2,7 @@ package me.bechberger.ctest;
 
 import picocli.CommandLine;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -10,7 +11,15 @@ import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -22,7 +31,8 @@ import static picocli.CommandLine.Command;
 import static picocli.CommandLine.Option;
 
 @Command(name = "ctest", mixinStandardHelpOptions = true, version = "1.0",
-        description = "Starts a JFR recording and tests it with different scenarios.")
+        description = "Starts a JFR recording and tests it with different scenarios.",
+        subcommands = {ResultStore.QueryCommand.class, Archive.ArchiveCommand.class})
 public class Main implements Runnable {
 
     static class JavaOptions {
@@ -54,9 +64,27 @@ public class Main implements Runnable {
             return allOptions;
         }
 
+        /**
+         * Options without any JFR, for baseline runs
+         */
+        List<String> toBaselineOptions() {
+            List<String> allOptions = new ArrayList<>();
+            allOptions.add("-XX:+UnlockDiagnosticVMOptions");
+            allOptions.add("-XX:+DebugNonSafepoints");
+            allOptions.addAll(options);
+            return allOptions;
+        }
+
         String toJFROptions(Path jfrFile) {
             return "filename=" + jfrFile + "," + String.join(",", jfrOptions);
         }
+
+        /**
+         * The JFR options split into their key=value pairs
+         */
+        List<String> jfrOptionList() {
+            return jfrOptions.stream().flatMap(o -> Stream.of(o.split(","))).filter(o -> !o.isEmpty()).toList();
+        }
     }
 
     interface OptionAdder {
@@ -67,15 +95,34 @@ public class Main implements Runnable {
         String toCSVValue();
     }
 
+    /**
+     * Settings of the benchmark workloads
+     *
+     * @param iterations       the number of iterations of the renaissance benchmarks, -1 for default
+     * @param threads          the number of threads of the synthetic workload, -1 for one per available processor
+     * @param durationSeconds  the duration of the synthetic workload
+     * @param scalingMaxThreads   the maximum number of threads of the scaling workload
+     * @param scalingPhaseSeconds the duration of every thread count of the scaling workload
+     * @param scalingCarriers     the number of carrier threads of the virtual threads, -1 for the JVM default
+     * @param classUnloadRate       the number of classes the class unloading workload defines per second, -1 for no limit
+     * @param classUnloadIterations the number of iterations of the hot loop of every defined class
+     * @param classUnloadGCInterval the interval of the explicit GCs of the class unloading workload in milliseconds, 0 for none
+     */
+    record WorkloadSettings(int iterations, int threads, int durationSeconds, int scalingMaxThreads, int scalingPhaseSeconds,
+                            int scalingCarriers, int classUnloadRate, int classUnloadIterations, long classUnloadGCInterval) {
+    }
+
     enum Benchmark implements CSVValue {
         RENAISSANCE(BenchmarkRunner.RenaissanceBenchmarkRunner::new),
+        SYNTHETIC(BenchmarkRunner.SyntheticBenchmarkRunner::new),
+        SCALING(BenchmarkRunner.ScalingBenchmarkRunner::new),
+        CLASSUNLOAD(BenchmarkRunner.ClassUnloadTestRunner::new),
         ;
         // DACAPO,
-        // CLASSUNLOAD(BenchmarkRunner.ClassUnloadTestRunner::new);
 
-        private final BiFunction<OptionSet, Integer, BenchmarkRunner> creator;
+        private final BiFunction<OptionSet, WorkloadSettings, BenchmarkRunner> creator;
 
-        Benchmark(BiFunction<OptionSet, Integer, BenchmarkRunner> creator) {
+        Benchmark(BiFunction<OptionSet, WorkloadSettings, BenchmarkRunner> creator) {
             this.creator = creator;
         }
 
@@ -84,44 +131,149 @@ public class Main implements Runnable {
             return name().toLowerCase();
         }
 
-        public BenchmarkRunner createRunner(OptionSet options, int iterations) {
-            return creator.apply(options, iterations);
+        public BenchmarkRunner createRunner(OptionSet options, WorkloadSettings workload) {
+            return creator.apply(options, workload);
         }
     }
 
     @Option(names = {"-b", "--benchmark"}, description = "The benchmarks to run. Possible values: ${COMPLETION-CANDIDATES}", split = ",")
     List<Benchmark> benchmarks = List.of(Benchmark.values());
 
-    private static final String CPU_TIME_SAMPLE_CONFIG = "jdk.CPUTimeSample#enabled=true,jdk.CPUTimeSample#throttle=1ms";
-    private static final String STANDARD_JFR_SAMPLE_CONFIG = "jdk.ExecutionSample#enabled=true,jdk.ExecutionSample#period=1ms,jdk.NativeMethodSample#enabled=true,jdk.NativeMethodSample#period=1ms";
+    private static final String CPU_TIME_SAMPLE_CONFIG = "jdk.CPUTimeSample#enabled=true,jdk.CPUTimeSample#throttle={throttle}";
+    /**
+     * Disables all samplers, for runs with JFR but without sampling
+     */
+    static final String NO_SAMPLER_CONFIG = "jdk.CPUTimeSample#enabled=false,jdk.ExecutionSample#enabled=false,jdk.NativeMethodSample#enabled=false";
+    private static final String STANDARD_JFR_SAMPLE_CONFIG = "jdk.ExecutionSample#enabled=true,jdk.ExecutionSample#period={period},jdk.NativeMethodSample#enabled=true,jdk.NativeMethodSample#period={period}";
 
-    enum Sampler implements OptionAdder, CSVValue {
+    enum Sampler implements CSVValue {
         CPU_ONLY(CPU_TIME_SAMPLE_CONFIG),
         OTHER_SAMPLER(STANDARD_JFR_SAMPLE_CONFIG),
         WITH_OTHER_SAMPLER(CPU_TIME_SAMPLE_CONFIG, STANDARD_JFR_SAMPLE_CONFIG),
         FULL_PROFILE("settings=profile.jfc", CPU_TIME_SAMPLE_CONFIG, STANDARD_JFR_SAMPLE_CONFIG);
 
 
-        public final String config;
+        private final String config;
 
         Sampler(String... config) {
             this.config = String.join(",", config);
         }
 
-        @Override
-        public void addOption(JavaOptions options) {
-            options.addJfrOption(config);
+        /**
+         * The JFR options of the sampler with the given sampling period
+         */
+        String config(SamplingPeriod period) {
+            return config.replace("{throttle}", period.throttle()).replace("{period}", period.period());
         }
 
         @Override
         public String toCSVValue() {
             return name().toLowerCase().replace("_", " ");
         }
+
+        /**
+         * Whether the CPU time sampler and the standard JFR samplers both run, so their stacks can be compared
+         */
+        boolean comparesSamplers() {
+            return this == WITH_OTHER_SAMPLER || this == FULL_PROFILE;
+        }
+
+        /**
+         * Sampling period of the CPU time sampler per thread, 0 if it isn't enabled
+         */
+        double cpuTimeSamplePeriodMillis(SamplingPeriod period) {
+            return config.contains("jdk.CPUTimeSample#enabled=true") ? periodMillis(period, "jdk.CPUTimeSample#throttle") : 0;
+        }
+
+        /**
+         * Sampling period of the standard JFR execution sampler, 0 if it isn't enabled
+         */
+        double otherSamplerPeriodMillis(SamplingPeriod period) {
+            return config.contains("jdk.ExecutionSample#enabled=true") ? periodMillis(period, "jdk.ExecutionSample#period") : 0;
+        }
+
+        private double periodMillis(SamplingPeriod period, String key) {
+            return Stream.of(config(period).split(",")).filter(o -> o.startsWith(key + "="))
+                    .mapToDouble(o -> parsePeriodMillis(o.substring(key.length() + 1))).findFirst().orElse(0);
+        }
+
+        /**
+         * Parse JFR periods like "1ms" or "100us"
+         */
+        static double parsePeriodMillis(String period) {
+            String value = period.trim();
+            for (var unit : List.of(Map.entry("ns", 0.000_001), Map.entry("us", 0.001), Map.entry("ms", 1.0), Map.entry("s", 1000.0))) {
+                if (value.endsWith(unit.getKey())) {
+                    return Double.parseDouble(value.substring(0, value.length() - unit.getKey().length()).trim()) * unit.getValue();
+                }
+            }
+            return Double.parseDouble(value);
+        }
     }
 
     @Option(names = {"-s", "--samplers"}, description = "The sampler configs to use. Possible values: ${COMPLETION-CANDIDATES}", split = ",")
     List<Sampler> samplers = List.of(Sampler.values());
 
+    /**
+     * Sampling period of the samplers per thread, either a period like "100us" (or "100µs") and "10ms",
+     * or a rate per thread like "2000hz"
+     * <p>
+     * Rates are passed as their period to all samplers: the CPU time sampler reads a throttle rate like "2000/s"
+     * as a rate of the whole process, which would make its period per thread depend on the number of active CPUs.
+     */
+    record SamplingPeriod(String value) implements CSVValue {
+
+        static final SamplingPeriod DEFAULT = new SamplingPeriod("1ms");
+
+        SamplingPeriod {
+            value = value.trim().replace("µ", "u");
+            if (!(value.endsWith("hz") || value.endsWith("s")) || value.endsWith("/s") || Sampler.parsePeriodMillis(period(value)) <= 0) {
+                throw new IllegalArgumentException("Invalid sampling period " + value + ", expected e.g. 100us, 1ms or 1000hz");
+            }
+        }
+
+        /**
+         * The throttle of the CPU time sampler, the same period as {@link #period()}
+         */
+        String throttle() {
+            return period();
+        }
+
+        String period() {
+            return period(value);
+        }
+
+        private static String period(String value) {
+            if (value.endsWith("hz")) {
+                double rate = Double.parseDouble(value.substring(0, value.length() - 2));
+                if (!(rate > 0)) {
+                    throw new IllegalArgumentException("Invalid sampling rate " + value);
+                }
+                return Math.round(1_000_000_000 / rate) + "ns";
+            }
+            return value;
+        }
+
+        double millis() {
+            return Sampler.parsePeriodMillis(period());
+        }
+
+        @Override
+        public String toCSVValue() {
+            return value;
+        }
+    }
+
+    @Option(names = "--sampling-periods", description = "The sampling periods (e.g. 100us, 1ms) or rates per thread (e.g. 1000hz) of the samplers.", split = ",", converter = SamplingPeriodConverter.class)
+    List<SamplingPeriod> samplingPeriods = List.of(SamplingPeriod.DEFAULT);
+
+    static class SamplingPeriodConverter implements CommandLine.ITypeConverter<SamplingPeriod> {
+        @Override
+        public SamplingPeriod convert(String value) {
+            return new SamplingPeriod(value);
+        }
+    }
+
     enum GC implements OptionAdder, CSVValue {
         G1("G1GC"),
         ZGC("ZGC"),
@@ -229,22 +381,37 @@ public class Main implements Runnable {
     @Option(names = {"-d", "--durations"}, description = "Duration of the recordings, recordings will be repeated till the benchmark ends. Possible values: ${COMPLETION-CANDIDATES}")
     List<JFRDuration> jfrDurations = List.of(JFRDuration.values());
 
-    record OptionSet(Benchmark benchmark, Sampler sampler, GC gc, MaxChunkSize maxChunkSize, HeapSize heapSize,
-                     JFRDuration duration, boolean randomizeOrder) implements OptionAdder {
+    record OptionSet(Benchmark benchmark, Sampler sampler, SamplingPeriod samplingPeriod, GC gc, MaxChunkSize maxChunkSize,
+                     HeapSize heapSize, JFRDuration duration, boolean randomizeOrder) implements OptionAdder {
         @Override
         public void addOption(JavaOptions options) {
-            sampler.addOption(options);
+            options.addJfrOption(sampler.config(samplingPeriod));
             gc.addOption(options);
             maxChunkSize.addOption(options);
             heapSize.addOption(options);
         }
 
         public List<String> toCSV() {
-            return List.of(benchmark.toCSVValue(), sampler.toCSVValue(), gc.toCSVValue(), maxChunkSize.toCSVValue(), heapSize.toCSVValue(), duration.name().toLowerCase());
+            return List.of(benchmark.toCSVValue(), sampler.toCSVValue(), samplingPeriod.toCSVValue(), gc.toCSVValue(), maxChunkSize.toCSVValue(), heapSize.toCSVValue(), duration.name().toLowerCase());
         }
 
         public static List<String> toCSVHeader() {
-            return List.of("benchmark", "sampler", "gc", "max chunk size", "heap size", "duration");
+            return List.of("benchmark", "sampler", "sampling period", "gc", "max chunk size", "heap size", "duration");
+        }
+
+        /**
+         * The CSV values with the java executable the config ran on, runs on different JDKs aren't comparable
+         */
+        public List<String> toCSV(String java) {
+            List<String> csv = new ArrayList<>(toCSV());
+            csv.add(java);
+            return csv;
+        }
+
+        public static List<String> toCSVHeaderWithJava() {
+            List<String> csv = new ArrayList<>(toCSVHeader());
+            csv.add("java");
+            return csv;
         }
     }
 
@@ -255,32 +422,138 @@ public class Main implements Runnable {
      * @return a stream of all possible option sets
      */
     Stream<OptionSet> optionSets() {
-        Supplier<Stream<OptionSet>> optionSetStream = () -> jfrDurations.stream().flatMap(d -> benchmarks.stream().flatMap(benchmark ->
-                samplers.stream().flatMap(sampler ->
-                        gcs.stream().flatMap(gc ->
-                                maxChunkSizes.stream().flatMap(maxChunkSize ->
-                                        heapSizes.stream().map(heapSize ->
-                                                new OptionSet(benchmark, sampler, gc, maxChunkSize, heapSize, d, randomBenchmarkOrder)))))));
+        if (adaptive) {
+            return adaptiveOptionSets();
+        }
         return IntStream.range(0, runs == -1 ? Integer.MAX_VALUE : runs).mapToObj(i -> {
+            var optionSetList = allOptionSets();
             if (randomConfigOrder) {
-                var optionSetList = optionSetStream.get().collect(Collectors.toCollection(ArrayList::new));
                 Collections.shuffle(optionSetList);
-                return optionSetList.stream();
             }
-            return optionSetStream.get();
+            return optionSetList.stream();
         }).flatMap(s -> s);
     }
 
+    enum Coverage {
+        FULL(Integer.MAX_VALUE),
+        PAIRWISE(2),
+        THREE_WISE(3);
+
+        /**
+         * Number of options whose value combinations all have to be run
+         */
+        final int strength;
+
+        Coverage(int strength) {
+            this.strength = strength;
+        }
+    }
+
+    @Option(names = "--coverage", description = "Which combinations of the options to run: all (full), or only enough configs to run every combination of the values of every two (pairwise) or three options. Possible values: ${COMPLETION-CANDIDATES}")
+    Coverage coverage = Coverage.FULL;
+
+    /**
+     * The configs of the chosen coverage, the cartesian product of all options for full coverage
+     */
+    List<OptionSet> allOptionSets() {
+        List<List<?>> dimensions = List.of(jfrDurations, benchmarks, samplers, gcs, maxChunkSizes, heapSizes, samplingPeriods);
+        int[] sizes = dimensions.stream().mapToInt(List::size).toArray();
+        List<OptionSet> optionSetList = new ArrayList<>();
+        for (int[] row : CoveringArray.generate(sizes, coverage.strength, 0)) {
+            optionSetList.add(new OptionSet(benchmarks.get(row[1]), samplers.get(row[2]), samplingPeriods.get(row[6]), gcs.get(row[3]),
+                    maxChunkSizes.get(row[4]), heapSizes.get(row[5]), jfrDurations.get(row[0]), randomBenchmarkOrder));
+        }
+        return optionSetList;
+    }
+
+    /**
+     * Option sets picked by the adaptive scheduler, seeded with the results in the result store,
+     * as many as the non-adaptive mode would run
+     */
+    Stream<OptionSet> adaptiveOptionSets() {
+        var optionSetList = allOptionSets();
+        scheduler = new AdaptiveScheduler(optionSetList, adaptiveExploration);
+        for (var options : optionSetList) {
+            var stats = store.stats(options.toCSV(scheduledJava()));
+            scheduler.seed(options, stats.runs(), stats.failures());
+        }
+        var stream = Stream.generate(() -> {
+            var options = scheduler.next();
+            if (verbose != Verbosity.SILENT) {
+                System.out.println("Adaptive pick: " + options + " (" + scheduler.summary(options) + ")");
+            }
+            return options;
+        });
+        return runs == -1 ? stream : stream.limit((long) runs * optionSetList.size());
+    }
+
     @Option(names = {"-i", "--iterations"}, description = "The number of iterations to run the benchmarks (for renaisance and dacapo, -1 for default).")
     int iterations = 1;
 
+    @Option(names = "--synthetic-threads", description = "The number of threads of the synthetic and the class unloading benchmark, -1 for one per available processor.")
+    int syntheticThreads = -1;
+
+    @Option(names = "--synthetic-duration", description = "The duration of the synthetic and the class unloading benchmark in seconds.")
+    int syntheticDuration = 30;
+
+    @Option(names = "--scaling-max-threads", description = "The maximum number of threads of the scaling benchmark, which runs with 1, 2, 4, ... up to this many platform and then virtual threads.")
+    int scalingMaxThreads = 4096;
+
+    @Option(names = "--scaling-phase-duration", description = "The duration of every thread count of the scaling benchmark in seconds.")
+    int scalingPhaseDuration = 5;
+
+    @Option(names = "--scaling-carriers", description = "The number of carrier threads of the virtual threads of the scaling benchmark, -1 for the JVM default.")
+    int scalingCarriers = -1;
+
+    @Option(names = "--class-unload-rate", description = "The number of classes the class unloading benchmark defines (and unloads) per second, -1 for as many as possible.")
+    int classUnloadRate = -1;
+
+    @Option(names = "--class-unload-iterations", description = "The number of iterations of the hot loop of every class of the class unloading benchmark.")
+    int classUnloadIterations = 10_000;
+
+    @Option(names = "--class-unload-gc-interval", description = "The interval of the explicit GCs that unload the classes of the class unloading benchmark in milliseconds, 0 to only unload with the GCs triggered by the metaspace usage.")
+    long classUnloadGCInterval = 1000;
+
     @Option(names = "--runs", description = "The number of runs of the whole suite, -1 for infinite runs.")
     int runs = 1;
 
     @Option(names = "--csv-file", description = "The output file to write the results to.")
     String csvFile = "results.csv";
 
-    @Option(names = "--keep-jfr", description = "The JFR file to write the recordings to.")
+    @Option(names = "--store-file", description = "The result store to append the results of all runs to, see the query subcommand.")
+    String storeFile = "results.bin";
+
+    @Option(names = "--campaign", description = "The name of the campaign the results belong to in the result store.")
+    String campaign = "default";
+
+    @Option(names = "--resume", description = "Skip the runs of the campaign that are already in the result store, and append to the CSV files.")
+    boolean resume = false;
+
+    @Option(names = "--benchmark-csv-file", description = "The output file to write the results per renaissance benchmark to.")
+    String benchmarkCsvFile = "benchmark-results.csv";
+
+    @Option(names = "--timeline", description = "Collect a timeline of the samples per run, correlated with GC, safepoint and rotation events.")
+    boolean timeline = false;
+
+    @Option(names = "--timeline-bucket", description = "The width of the timeline buckets in milliseconds.")
+    int timelineBucket = 100;
+
+    @Option(names = "--timeline-csv-file", description = "The output file to write the timelines to.")
+    String timelineCsvFile = "timeline.csv";
+
+    @Option(names = "--hang-timeout", description = "The time in seconds after which a run is considered hung, -1 to estimate it from the previous runs of the config in the result store.")
+    long hangTimeout = -1;
+
+    @Option(names = "--hang-factor", description = "A run is considered hung if it takes this many times longer than the longest previous run of its config.")
+    double hangFactor = 3;
+
+    @Option(names = "--hang-default-timeout", description = "The hang timeout in seconds for configs without previous runs.")
+    long hangDefaultTimeout = 7200;
+
+    @Option(names = "--hang-folder", description = "The folder to store the thread dumps, native stacks and hs_err files of hung runs in.")
+    String hangFolder = "hangs";
+
+    @Option(names = "--keep-jfr", description = "Keep the JFR files, instead of deleting every recording as soon as it is parsed.")
     boolean keepJfr = false;
 
     @Option(names = "--jfr-folder", description = "The folder to write the JFR files to.")
@@ -307,12 +580,257 @@ public class Main implements Runnable {
     @Option(names = "--random-config-order", description = "Randomize the order of the configs")
     boolean randomConfigOrder = false;
 
-    void run(OptionSet options) {
-        var runner = options.benchmark.createRunner(options, iterations);
+    @Option(names = "--adaptive", description = "Pick the configs adaptively, running configs that failed more often more often (Thompson sampling, seeded from the result store).")
+    boolean adaptive = false;
+
+    @Option(names = "--adaptive-exploration", description = "The probability with which the adaptive mode picks a config uniformly at random.")
+    double adaptiveExploration = 0.1;
+
+    @Option(names = "--parallel", description = "The number of runs to execute concurrently, each pinned to its own CPUs.")
+    int parallel = 1;
+
+    @Option(names = "--cores-per-run", description = "The number of CPUs each run is pinned to, -1 to split the available CPUs evenly between the parallel runs.")
+    int coresPerRun = -1;
+
+    @Option(names = "--live-monitor", description = "Stream the events of running benchmarks and abort runs with unreasonable CPU time samples.")
+    boolean liveMonitor = false;
+
+    @Option(names = "--live-monitor-window", description = "The length of a live monitor window in seconds.")
+    int liveMonitorWindow = 10;
+
+    @Option(names = "--live-monitor-windows", description = "The number of consecutive unreasonable live monitor windows after which a run is aborted.")
+    int liveMonitorWindows = 3;
+
+    @Option(names = "--control-channel", description = "How recordings are stopped and started when rotating them. Possible values: ${COMPLETION-CANDIDATES}")
+    RecordingControl.Kind controlChannel = RecordingControl.Kind.JMX;
+
+    @Option(names = "--overhead", description = "Measure the throughput overhead of profiling by interleaving the runs of every config with runs without JFR and comparing the iteration times.")
+    boolean overhead = false;
+
+    @Option(names = "--overhead-repetitions", description = "The number of profiled and of baseline runs per config in overhead mode.")
+    int overheadRepetitions = 5;
+
+    @Option(names = "--overhead-warmup-iterations", description = "The number of iterations at the start of every run in overhead mode that are dropped before averaging the iteration times of the run.")
+    int overheadWarmupIterations = 3;
+
+    @Option(names = "--overhead-csv-file", description = "The file to write the overhead report to.")
+    String overheadCsvFile = "overhead.csv";
+
+    @Option(names = "--sweep", description = "Run all sampling periods of every config with the CPU time sampler from the slowest to the fastest, till the loss rate of the CPU time sampler exceeds the max loss rate, and report the loss-rate curves.")
+    boolean sweep = false;
+
+    @Option(names = "--sweep-max-loss-rate", description = "The highest sustainable rate of overflowed CPU time samples in sweep mode.")
+    double sweepMaxLossRate = 0.05;
+
+    @Option(names = "--sweep-csv-file", description = "The file to write the loss-rate curves to.")
+    String sweepCsvFile = "sweep.csv";
+
+    @Option(names = "--latency", description = "Measure the impact of the samplers on GC pauses, times to safepoint and VM operations by interleaving the runs of every config with runs without samplers and comparing the pause percentiles.")
+    boolean latency = false;
+
+    @Option(names = "--latency-repetitions", description = "The number of runs with and of runs without samplers per config in latency mode.")
+    int latencyRepetitions = 3;
+
+    @Option(names = "--latency-csv-file", description = "The file to write the pause percentiles to.")
+    String latencyCsvFile = "latency.csv";
+
+    @Option(names = "--archive", description = "Write the sampler events of every run to a compact archive in the JFR folder, which `ctest archive` can analyze without the recordings.")
+    boolean archive = false;
+
+    @Option(names = "--java-a", description = "The java executable of the first JDK in A/B mode, which interleaves the runs of every config on both JDKs and compares them.")
+    String javaA;
+
+    @Option(names = "--java-b", description = "The java executable of the second JDK in A/B mode, whose regressions are flagged.")
+    String javaB;
+
+    @Option(names = "--ab-repetitions", description = "The number of runs per config and JDK in A/B mode.")
+    int abRepetitions = 5;
+
+    @Option(names = "--ab-alpha", description = "The significance level of the tests in A/B mode.")
+    double abAlpha = 0.05;
+
+    @Option(names = "--ab-csv-file", description = "The file to write the A/B comparison to.")
+    String abCsvFile = "ab.csv";
+
+    @Option(names = "--rotation-stress", description = "Rotate concurrent named recordings with different sampling periods on staggered schedules next to the recording of every run, and report the operation latencies and the sample loss at the transitions.")
+    boolean rotationStress = false;
+
+    @Option(names = "--stress-interval", description = "The time between two rotations of a stress recording in milliseconds.")
+    int stressInterval = 50;
+
+    @Option(names = "--stress-recordings", description = "The number of concurrent stress recordings.")
+    int stressRecordings = 4;
+
+    @Option(names = "--stress-sampling-periods", description = "The sampling periods of the stress recordings, assigned round-robin.", split = ",", converter = SamplingPeriodConverter.class)
+    List<SamplingPeriod> stressSamplingPeriods = List.of(new SamplingPeriod("1ms"), new SamplingPeriod("20ms"), new SamplingPeriod("100us"));
+
+    @Option(names = "--stress-bucket", description = "The width of the buckets the stress transitions are located in, in milliseconds.")
+    int stressBucket = 10;
+
+    @Option(names = "--stress-csv-file", description = "The file to write the rotation stress reports to.")
+    String stressCsvFile = "stress.csv";
+
+    @Option(names = "--metrics-port", description = "Serve Prometheus metrics of the campaign on http://localhost:<port>/metrics, -1 for none. Streams the recordings like the live monitor for the live sample rates, without aborting runs unless --live-monitor is set.")
+    int metricsPort = -1;
+
+    private final AtomicInteger runCounter = new AtomicInteger();
+
+    private final Object csvLock = new Object();
+
+    private ResultStore store;
+
+    private AdaptiveScheduler scheduler;
+
+    private Metrics metrics;
+
+    /**
+     * The java executables every config runs on
+     */
+    List<String> javaBinaries() {
+        return javaA != null ? List.of(javaA, javaB) : List.of(java);
+    }
+
+    /**
+     * The java executable whose failures the adaptive scheduler follows, in A/B mode the one whose regressions are flagged
+     */
+    String scheduledJava() {
+        return javaB != null ? javaB : java;
+    }
+
+    void run(OptionSet options, CoreScheduler.CpuSet cpus) {
+        if (overhead) {
+            runOverhead(options, cpus);
+        } else if (latency) {
+            runLatency(options, cpus);
+        } else if (javaA != null) {
+            runAB(options, cpus);
+        } else {
+            run(options, cpus, BenchmarkRunner.Baseline.NONE);
+        }
+    }
+
+    /**
+     * Run the profiled and the baseline runs of the config in random order and report the overhead
+     */
+    void runOverhead(OptionSet options, CoreScheduler.CpuSet cpus) {
+        var comparison = new Overhead.Comparison(options, overheadWarmupIterations);
+        for (int i = 0; i < overheadRepetitions; i++) {
+            boolean baselineFirst = ThreadLocalRandom.current().nextBoolean();
+            for (boolean baseline : List.of(baselineFirst, !baselineFirst)) {
+                var result = run(options, cpus, baseline ? BenchmarkRunner.Baseline.NO_JFR : BenchmarkRunner.Baseline.NONE);
+                if (result != null && !result.error()) {
+                    comparison.add(baseline, result.iterationTimes());
+                }
+            }
+        }
+        try {
+            for (var row : comparison.toCSV()) {
+                System.out.println("Overhead: " + row);
+                appendToCSV(overheadCsvFile, row);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run the config with and without samplers in random order and report the pause percentiles of both
+     */
+    void runLatency(OptionSet options, CoreScheduler.CpuSet cpus) {
+        var comparison = new PauseHistograms.Comparison(options);
+        for (int i = 0; i < latencyRepetitions; i++) {
+            boolean baselineFirst = ThreadLocalRandom.current().nextBoolean();
+            for (boolean baseline : List.of(baselineFirst, !baselineFirst)) {
+                var result = run(options, cpus, baseline ? BenchmarkRunner.Baseline.NO_SAMPLERS : BenchmarkRunner.Baseline.NONE);
+                if (result != null && !result.error()) {
+                    comparison.add(baseline, result.counts().pauses);
+                }
+            }
+        }
+        try {
+            for (var row : comparison.toCSV()) {
+                System.out.println("Latency: " + row);
+                appendToCSV(latencyCsvFile, row);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run the config on both JDKs in random order and report the differences, flagging the regressions of b
+     */
+    void runAB(OptionSet options, CoreScheduler.CpuSet cpus) {
+        var comparison = new ABTest.Comparison(options, javaA, javaB, abAlpha);
+        for (int i = 0; i < abRepetitions; i++) {
+            boolean bFirst = ThreadLocalRandom.current().nextBoolean();
+            for (boolean isB : List.of(bFirst, !bFirst)) {
+                var result = run(options, cpus, BenchmarkRunner.Baseline.NONE, isB ? javaB : javaA);
+                if (result != null) {
+                    comparison.add(isB, result);
+                }
+            }
+        }
+        try {
+            for (var row : comparison.toCSV()) {
+                System.out.println("A/B: " + row);
+                if (Boolean.parseBoolean(row.getLast())) {
+                    System.err.println("Regression of " + javaB + ": " + row + " for " + options);
+                }
+                appendToCSV(abCsvFile, row);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run every group of configs that only differ in their sampling period, from the slowest period to the saturation point
+     */
+    void runSweep() {
+        for (int i = 0; runs == -1 || i < runs; i++) {
+            var groups = Sweep.groups(allOptionSets(), samplingPeriods);
+            if (groups.isEmpty()) {
+                System.err.println("No configs with the CPU time sampler to sweep");
+                return;
+            }
+            for (var group : groups) {
+                var curve = new Sweep.Curve(sweepMaxLossRate);
+                for (var options : group) {
+                    curve.add(options, run(options, CoreScheduler.CpuSet.UNRESTRICTED, BenchmarkRunner.Baseline.NONE));
+                    if (curve.isSaturated()) {
+                        break;
+                    }
+                }
+                System.out.println("Saturation period: " + group.getFirst() + ": " +
+                        (curve.saturationPeriod().isEmpty() ? "none" : curve.saturationPeriod()));
+                try {
+                    appendRowsToCSV(sweepCsvFile, curve.toCSV());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the config once, baseline runs are not written to the CSV file
+     *
+     * @return the result or null if the run failed
+     */
+    BenchmarkRunner.Result run(OptionSet options, CoreScheduler.CpuSet cpus, BenchmarkRunner.Baseline baseline) {
+        return run(options, cpus, baseline, java);
+    }
+
+    BenchmarkRunner.Result run(OptionSet options, CoreScheduler.CpuSet cpus, BenchmarkRunner.Baseline baseline, String javaBinary) {
+        boolean isBaseline = baseline != BenchmarkRunner.Baseline.NONE;
+        var runner = options.benchmark.createRunner(options, new WorkloadSettings(iterations, syntheticThreads, syntheticDuration,
+                scalingMaxThreads, scalingPhaseDuration, scalingCarriers, classUnloadRate, classUnloadIterations, classUnloadGCInterval));
         try {
             Function<Integer, Path> jfrFileGenerator;
             Path generatedFileOrFolder;
-            String prefix = String.join("_", options.toCSV()).replace(' ', '-') + "_" + System.currentTimeMillis();
+            // the run counter keeps the files of concurrently started runs apart
+            String prefix = String.join("_", options.toCSV()).replace(' ', '-') + "_" + System.currentTimeMillis() + "_" + runCounter.incrementAndGet();
             if (options.duration.producesMultipleFiles()) {
                 var baseFolder = Path.of(jfrFolder, prefix);
                 Files.createDirectories(baseFolder);
@@ -347,58 +865,291 @@ public class Main implements Runnable {
             };
             var shutdownHook = new Thread(deleteAction);
             Runtime.getRuntime().addShutdownHook(shutdownHook);
-            var result = runner.run(jfrFileGenerator, java, verbose);
+            // the metrics need the live rates, but should not abort runs
+            var liveMonitorSettings = liveMonitor ? new LiveMonitor.Settings(liveMonitorWindow, liveMonitorWindows) :
+                    metrics != null ? new LiveMonitor.Settings(liveMonitorWindow, Integer.MAX_VALUE) : null;
+            var settings = new BenchmarkRunner.RunSettings(javaBinary, verbose, cpus, liveMonitorSettings, controlChannel, baseline,
+                    timeline ? timelineBucket : 0, new HangWatchdog.Settings(hangTimeoutSeconds(options, javaBinary), Path.of(hangFolder)), keepJfr, latency,
+                    archive ? Path.of(jfrFolder, prefix + Archive.EXTENSION) : null,
+                    rotationStress ? new RotationStress.Settings(stressInterval, stressRecordings, stressSamplingPeriods, stressBucket) : null,
+                    metrics);
+            if (metrics != null) {
+                metrics.runStarted(options, javaBinary);
+            }
+            BenchmarkRunner.Result result = null;
+            try {
+                result = runner.run(jfrFileGenerator, settings);
+            } finally {
+                if (metrics != null) {
+                    metrics.runFinished(options, javaBinary, result, !isBaseline);
+                }
+            }
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
             if (!keepJfr) {
                 deleteAction.run();
-                Runtime.getRuntime().removeShutdownHook(shutdownHook);
             }
             if (verbose != Verbosity.SILENT) {
-                System.out.println("Finished: " + options);
+                System.out.println("Finished: " + options + (isBaseline ? " (baseline)" : "") + (javaA != null ? " with " + javaBinary : ""));
+            }
+            if (isBaseline) {
+                return result;
             }
-            if (!result.isReasonable()) {
+            if (scheduler != null && javaBinary.equals(scheduledJava())) {
+                scheduler.record(options, result.failed());
+            }
+            if (result.samplesCpuTime() && !result.isReasonable()) {
                 System.err.println("Result not reasonable: " + result + " for " + options);
             }
             if (result.error()) {
                 System.err.println("Error during execution: " + result + " for " + options);
             }
+            if (result.aborted()) {
+                System.err.println("Aborted by the live monitor: " + result + " for " + options);
+            }
+            if (result.hang()) {
+                System.err.println("Hung: " + result + " for " + options);
+            }
+            if (result.crash()) {
+                System.err.println("Crashed: " + result + " for " + options);
+            }
             System.out.println(result.toCSV());
+            store.append(ResultStore.Entry.of(campaign, result));
+            appendToCSV(csvFile, result.toCSV());
+            appendRowsToCSV(benchmarkCsvFile, result.toBenchmarkCSV());
+            appendRowsToCSV(timelineCsvFile, result.toTimelineCSV());
+            appendRowsToCSV(stressCsvFile, result.toStressCSV());
+            return result;
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (scheduler != null && !isBaseline && javaBinary.equals(scheduledJava())) {
+                scheduler.record(options, true);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The configured hang timeout, or the longest previous run of the config on the JDK times the hang factor
+     * (but at least a minute, as short runs vary a lot)
+     */
+    long hangTimeoutSeconds(OptionSet options, String javaBinary) {
+        if (hangTimeout != -1) {
+            return hangTimeout;
+        }
+        long maxDuration = store.stats(options.toCSV(javaBinary)).maxDuration();
+        return maxDuration == 0 ? hangDefaultTimeout : Math.max(60, (long) (maxDuration * hangFactor));
+    }
+
+    /**
+     * Append lines, serialized so that concurrent runs don't interleave their lines
+     */
+    void appendToCSV(String file, List<String> values) throws IOException {
+        appendRowsToCSV(file, List.of(values));
+    }
+
+    void appendRowsToCSV(String file, List<List<String>> rows) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        synchronized (csvLock) {
             try {
-                Path.of(csvFile).toFile().createNewFile();
+                Path.of(file).toFile().createNewFile();
             } catch (IOException e) {
             }
-            try (var s = Files.newOutputStream(Path.of(csvFile), StandardOpenOption.APPEND)) {
-                s.write((String.join(",", result.toCSV()) + "\n").getBytes());
+            try (var s = new BufferedOutputStream(Files.newOutputStream(Path.of(file), StandardOpenOption.APPEND))) {
+                for (var values : rows) {
+                    s.write((String.join(",", values) + "\n").getBytes());
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
     void setup() {
+        if ((javaA == null) != (javaB == null)) {
+            throw new CommandLine.ParameterException(new CommandLine(this), "--java-a and --java-b have to be used together");
+        }
+        if (overheadWarmupIterations < 0) {
+            throw new CommandLine.ParameterException(new CommandLine(this), "--overhead-warmup-iterations has to be at least 0");
+        }
+        // the sweep runs its configs one after the other
+        if (!sweep && runsInParallel()) {
+            checkParallelOptions(CoreScheduler.availableCpus().size());
+        }
         Path jfrFolder = Path.of(this.jfrFolder);
         if (!jfrFolder.toFile().exists()) {
             jfrFolder.toFile().mkdir();
         }
+        store = ResultStore.open(Path.of(storeFile));
+        if (resume) {
+            appendCsv = true;
+        }
+        setupCSV(csvFile, BenchmarkRunner.Result.toCSVHeader());
+        setupCSV(benchmarkCsvFile, BenchmarkRunner.Result.toBenchmarkCSVHeader());
+        if (timeline) {
+            setupCSV(timelineCsvFile, BenchmarkRunner.Result.toTimelineCSVHeader());
+        }
+        if (sweep) {
+            setupCSV(sweepCsvFile, Sweep.Curve.toCSVHeader());
+        }
+        if (overhead) {
+            setupCSV(overheadCsvFile, Overhead.Comparison.toCSVHeader());
+        }
+        if (latency) {
+            setupCSV(latencyCsvFile, PauseHistograms.Comparison.toCSVHeader());
+        }
+        if (javaA != null) {
+            setupCSV(abCsvFile, ABTest.Comparison.toCSVHeader());
+        }
+        if (rotationStress) {
+            setupCSV(stressCsvFile, RotationStress.Report.toCSVHeader());
+        }
+    }
+
+    void setupCSV(String file, List<String> header) {
         try {
-            if (Files.exists(Path.of(csvFile))) {
+            if (Files.exists(Path.of(file))) {
                 if (!appendCsv) {
-                    Files.deleteIfExists(Path.of(csvFile));
-                } else if (Files.readAllLines(Path.of(csvFile)).isEmpty()) {
-                    Files.writeString(Path.of(csvFile), String.join(",", BenchmarkRunner.Result.toCSVHeader()) + "\n");
+                    Files.deleteIfExists(Path.of(file));
+                    Files.writeString(Path.of(file), String.join(",", header) + "\n");
+                } else if (Files.size(Path.of(file)) == 0) {
+                    Files.writeString(Path.of(file), String.join(",", header) + "\n");
                 }
             } else {
-                Files.createFile(Path.of(csvFile));
-                Files.writeString(Path.of(csvFile), String.join(",", BenchmarkRunner.Result.toCSVHeader()) + "\n");
+                Files.createFile(Path.of(file));
+                Files.writeString(Path.of(file), String.join(",", header) + "\n");
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * The option sets without the runs that the campaign already completed, if resuming
+     */
+    Stream<OptionSet> pendingOptionSets() {
+        // the adaptive mode takes the stored results into account on its own
+        if (!resume || adaptive) {
+            return optionSets();
+        }
+        int runsPerOptionSet = storedRunsPerOptionSet();
+        Map<List<String>, Integer> seen = new HashMap<>();
+        return optionSets().filter(options -> {
+            int occurrence = seen.merge(options.toCSV(), 1, Integer::sum);
+            boolean completed = javaBinaries().stream()
+                    .allMatch(javaBinary -> store.completedRuns(campaign, options.toCSV(javaBinary)) >= occurrence * runsPerOptionSet);
+            if (completed && verbose != Verbosity.SILENT) {
+                System.out.println("Skipping completed: " + options);
+            }
+            return !completed;
+        });
+    }
+
+    /**
+     * The number of runs one occurrence of an option set stores per java executable, baseline runs are not stored
+     */
+    int storedRunsPerOptionSet() {
+        if (overhead) {
+            return overheadRepetitions;
+        }
+        if (latency) {
+            return latencyRepetitions;
+        }
+        if (javaA != null) {
+            return abRepetitions;
+        }
+        return 1;
+    }
+
+    boolean runsInParallel() {
+        return parallel > 1 || coresPerRun != -1;
+    }
+
+    int cpusPerRun(int totalCpus) {
+        return coresPerRun == -1 ? Math.max(1, totalCpus / parallel) : coresPerRun;
+    }
+
+    /**
+     * Reject parallel runs that can't be pinned to their own disjoint sets of CPUs
+     */
+    void checkParallelOptions(int totalCpus) {
+        var commandLine = new CommandLine(this);
+        if (parallel < 1) {
+            throw new CommandLine.ParameterException(commandLine, "--parallel has to be at least 1");
+        }
+        if (coresPerRun != -1 && coresPerRun < 1) {
+            throw new CommandLine.ParameterException(commandLine, "--cores-per-run has to be at least 1 or -1");
+        }
+        if (!CoreScheduler.canPin()) {
+            throw new CommandLine.ParameterException(commandLine, "--parallel and --cores-per-run require taskset to pin the runs to their CPUs");
+        }
+        int cpusPerRun = cpusPerRun(totalCpus);
+        if (cpusPerRun * parallel > totalCpus) {
+            throw new CommandLine.ParameterException(commandLine, "Only " + totalCpus + " CPUs available for " + parallel +
+                    " runs with " + cpusPerRun + " CPUs each");
+        }
+    }
+
+    /**
+     * Run the option sets concurrently, every run gets its own disjoint set of CPUs
+     */
+    void runInParallel() {
+        var cores = new CoreScheduler();
+        int cpusPerRun = cpusPerRun(cores.totalCpus());
+        ExecutorService executor = Executors.newFixedThreadPool(parallel);
+        Semaphore slots = new Semaphore(parallel);
+        try {
+            pendingOptionSets().forEach(options -> {
+                try {
+                    slots.acquire();
+                    var cpus = cores.acquire(cpusPerRun);
+                    executor.execute(() -> {
+                        try {
+                            run(options, cpus);
+                        } finally {
+                            cores.release(cpus);
+                            slots.release();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     @Override
     public void run() {
         setup();
-        optionSets().forEach(this::run);
+        try {
+            if (metricsPort != -1) {
+                metrics = Metrics.start(metricsPort);
+            }
+            if (sweep) {
+                runSweep();
+            } else if (runsInParallel()) {
+                runInParallel();
+            } else {
+                pendingOptionSets().forEach(options -> run(options, CoreScheduler.CpuSet.UNRESTRICTED));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (metrics != null) {
+                metrics.close();
+            }
+            try {
+                store.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     public static void main(String[] args) {
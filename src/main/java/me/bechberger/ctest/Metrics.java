@@ -0,0 +1,196 @@
+package me.bechberger.ctest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of a campaign in the Prometheus text format, served on localhost, so that long campaigns
+ * can be watched on a dashboard
+ * <p>
+ * All metrics of runs are labeled with the options of their config and their java executable, so they can be
+ * aggregated by any dimension.
+ */
+class Metrics implements AutoCloseable {
+
+    private static final String PREFIX = "ctest_";
+
+    /**
+     * Counters of the completed runs of a config
+     */
+    private static class ConfigCounters {
+        long runs;
+        long errors;
+        long hangs;
+        long crashes;
+        long aborted;
+        long unreasonable;
+        long validSamples;
+        long lostSamples;
+        long emptySamples;
+    }
+
+    /**
+     * The running runs of a config, with the rates of the last live monitor window, NaN before the first window
+     */
+    private static class Current {
+        int running;
+        long startMillis;
+        double validPerSecond = Double.NaN;
+        double lostPerSecond = Double.NaN;
+        double emptyPerSecond = Double.NaN;
+    }
+
+    private record Counter(String name, String help, ToLongFunction<ConfigCounters> value) {
+    }
+
+    private static final List<Counter> COUNTERS = List.of(
+            new Counter("runs_total", "Completed runs", c -> c.runs),
+            new Counter("run_errors_total", "Runs with errors", c -> c.errors),
+            new Counter("run_hangs_total", "Hung runs", c -> c.hangs),
+            new Counter("run_crashes_total", "Runs whose JVM crashed", c -> c.crashes),
+            new Counter("run_aborts_total", "Runs aborted by the live monitor", c -> c.aborted),
+            new Counter("unreasonable_runs_total", "Runs with unreasonable CPU time samples", c -> c.unreasonable),
+            new Counter("valid_cpu_time_samples_total", "Valid CPU time samples of the completed runs", c -> c.validSamples),
+            new Counter("lost_cpu_time_samples_total", "Lost CPU time samples of the completed runs", c -> c.lostSamples),
+            new Counter("empty_cpu_time_samples_total", "Empty CPU time samples of the completed runs", c -> c.emptySamples));
+
+    private final HttpServer server;
+    private final long startMillis = System.currentTimeMillis();
+    /**
+     * Keyed by the CSV values of the configs with their java executables, guarded by this
+     */
+    private final Map<List<String>, ConfigCounters> counters = new TreeMap<>(Metrics::compare);
+    private final Map<List<String>, Current> current = new TreeMap<>(Metrics::compare);
+
+    private Metrics(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Serve the metrics on http://localhost:port/metrics
+     */
+    static Metrics start(int port) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        var metrics = new Metrics(server);
+        server.createContext("/metrics", metrics::handle);
+        server.start();
+        System.out.println("Serving metrics on http://localhost:" + server.getAddress().getPort() + "/metrics");
+        return metrics;
+    }
+
+    private static int compare(List<String> a, List<String> b) {
+        return String.join(",", a).compareTo(String.join(",", b));
+    }
+
+    synchronized void runStarted(Main.OptionSet options, String java) {
+        var run = current.computeIfAbsent(options.toCSV(java), k -> new Current());
+        run.running++;
+        run.startMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @param result null if the run failed with an exception
+     * @param count  whether to count the run, baseline runs are not counted
+     */
+    synchronized void runFinished(Main.OptionSet options, String java, BenchmarkRunner.Result result, boolean count) {
+        var key = options.toCSV(java);
+        var run = current.get(key);
+        if (run != null && --run.running == 0) {
+            current.remove(key);
+        }
+        if (!count) {
+            return;
+        }
+        var config = counters.computeIfAbsent(key, k -> new ConfigCounters());
+        config.runs++;
+        if (result == null) {
+            config.errors++;
+            return;
+        }
+        config.errors += result.error() ? 1 : 0;
+        config.hangs += result.hang() ? 1 : 0;
+        config.crashes += result.crash() ? 1 : 0;
+        config.aborted += result.aborted() ? 1 : 0;
+        config.unreasonable += result.samplesCpuTime() && !result.isReasonable() ? 1 : 0;
+        config.validSamples += result.counts().validCpuTimeEvents;
+        config.lostSamples += result.counts().overflowedCpuTimeEvents;
+        config.emptySamples += result.counts().emptyCpuTimeEvents;
+    }
+
+    /**
+     * Called by the {@link LiveMonitor} of a running run after every window
+     */
+    synchronized void liveWindow(Main.OptionSet options, String java, long valid, long lost, long empty, long windowMillis) {
+        var run = current.get(options.toCSV(java));
+        if (run != null && windowMillis > 0) {
+            run.validPerSecond = valid * 1000.0 / windowMillis;
+            run.lostPerSecond = lost * 1000.0 / windowMillis;
+            run.emptyPerSecond = empty * 1000.0 / windowMillis;
+        }
+    }
+
+    synchronized String toPrometheus() {
+        var out = new StringBuilder();
+        long now = System.currentTimeMillis();
+        header(out, "campaign_elapsed_seconds", "Time since the campaign started", "gauge");
+        out.append(PREFIX).append("campaign_elapsed_seconds ").append((now - startMillis) / 1000.0).append('\n');
+        for (var counter : COUNTERS) {
+            header(out, counter.name(), counter.help(), "counter");
+            counters.forEach((key, config) -> sample(out, counter.name(), key, counter.value().applyAsLong(config)));
+        }
+        header(out, "running_runs", "Runs of the config that are currently running", "gauge");
+        current.forEach((key, run) -> sample(out, "running_runs", key, run.running));
+        header(out, "current_run_elapsed_seconds", "Time since the last run of the config started", "gauge");
+        current.forEach((key, run) -> sample(out, "current_run_elapsed_seconds", key, (now - run.startMillis) / 1000.0));
+        header(out, "live_valid_cpu_time_samples_per_second", "Valid CPU time samples per second in the last live monitor window", "gauge");
+        current.forEach((key, run) -> sample(out, "live_valid_cpu_time_samples_per_second", key, run.validPerSecond));
+        header(out, "live_lost_cpu_time_samples_per_second", "Lost CPU time samples per second in the last live monitor window", "gauge");
+        current.forEach((key, run) -> sample(out, "live_lost_cpu_time_samples_per_second", key, run.lostPerSecond));
+        header(out, "live_empty_cpu_time_samples_per_second", "Empty CPU time samples per second in the last live monitor window", "gauge");
+        current.forEach((key, run) -> sample(out, "live_empty_cpu_time_samples_per_second", key, run.emptyPerSecond));
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, List<String> key, Object value) {
+        out.append(PREFIX).append(name).append('{');
+        List<String> header = Main.OptionSet.toCSVHeaderWithJava();
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < header.size(); i++) {
+            labels.add(header.get(i).replace(' ', '_') + "=\"" + escape(key.get(i)) + "\"");
+        }
+        out.append(String.join(",", labels)).append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,103 @@
+package me.bechberger.ctest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Throughput overhead of profiling, based on the iteration times of profiled and non-profiled (baseline) runs
+ */
+class Overhead {
+
+    /**
+     * Collects the steady-state iteration times of the profiled and the baseline runs of a config
+     * <p>
+     * The iterations of a run aren't independent (they share the JIT state, the heap and the CPUs), so the statistical
+     * unit is the run: every run contributes the mean of its iterations after the warmup iterations per benchmark,
+     * and the t-test compares these run means.
+     */
+    static class Comparison {
+        private final Main.OptionSet options;
+        private final int warmupIterations;
+        private final Map<String, List<Double>> baseline = new TreeMap<>();
+        private final Map<String, List<Double>> profiled = new TreeMap<>();
+
+        /**
+         * @param warmupIterations the number of iterations at the start of every run that are dropped
+         */
+        Comparison(Main.OptionSet options, int warmupIterations) {
+            this.options = options;
+            this.warmupIterations = warmupIterations;
+        }
+
+        void add(boolean isBaseline, IterationTimes times) {
+            var target = isBaseline ? baseline : profiled;
+            times.durationNanos().forEach((benchmark, nanos) -> {
+                var runs = target.computeIfAbsent(benchmark, b -> new ArrayList<>());
+                if (nanos.size() > warmupIterations) {
+                    runs.add(Statistics.mean(toMillis(nanos.subList(warmupIterations, nanos.size()))));
+                } else {
+                    System.err.println("Overhead: a run of " + benchmark + " has only " + nanos.size() + " iterations, not more than the "
+                            + warmupIterations + " warmup iterations");
+                }
+            });
+        }
+
+        /**
+         * One row per benchmark, with NaN statistics if there are less than two runs with steady-state iterations
+         * of either kind, and a single row without benchmark if no run reported iteration times
+         */
+        List<List<String>> toCSV() {
+            var benchmarks = new TreeSet<>(profiled.keySet());
+            benchmarks.addAll(baseline.keySet());
+            if (benchmarks.isEmpty()) {
+                System.err.println("Overhead: no iteration times for " + options.toCSV()
+                        + ", the benchmark doesn't report them (renaissance's --csv)");
+                benchmarks.add("");
+            }
+            List<List<String>> rows = new ArrayList<>();
+            for (var benchmark : benchmarks) {
+                double[] baselineMillis = toArray(baseline.getOrDefault(benchmark, List.of()));
+                double[] profiledMillis = toArray(profiled.getOrDefault(benchmark, List.of()));
+                double baselineMean = Statistics.mean(baselineMillis);
+                double overhead = Double.NaN;
+                double[] interval = {Double.NaN, Double.NaN};
+                double pValue = Double.NaN;
+                if (baselineMillis.length >= 2 && profiledMillis.length >= 2) {
+                    var welch = Statistics.welch(profiledMillis, baselineMillis);
+                    double[] difference = welch.confidenceInterval(0.95);
+                    overhead = welch.difference() / baselineMean * 100;
+                    interval = new double[]{difference[0] / baselineMean * 100, difference[1] / baselineMean * 100};
+                    pValue = welch.pValue();
+                }
+                List<String> row = new ArrayList<>(options.toCSV());
+                row.addAll(Stream.of(benchmark, warmupIterations, baselineMillis.length, profiledMillis.length, baselineMean,
+                        Statistics.mean(profiledMillis), overhead, interval[0], interval[1], pValue).map(Object::toString).toList());
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        /**
+         * The means are the means of the per-run means of the iterations after the warmup iterations
+         */
+        static List<String> toCSVHeader() {
+            List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
+            csv.addAll(List.of("iteration benchmark", "warmup iterations per run", "baseline runs", "profiled runs",
+                    "baseline mean of run means ms", "profiled mean of run means ms",
+                    "overhead %", "overhead 95% ci low %", "overhead 95% ci high %", "p-value"));
+            return csv;
+        }
+
+        private static double[] toMillis(List<Long> nanos) {
+            return nanos.stream().mapToDouble(n -> n / 1_000_000.0).toArray();
+        }
+
+        private static double[] toArray(List<Double> values) {
+            return values.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package me.bechberger.ctest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Mergeable histograms of the GC pauses and safepoint latencies of a run, to compare the pause tails
+ * of runs with and without samplers
+ */
+class PauseHistograms {
+
+    /**
+     * JFR options for the events of the histograms
+     */
+    static final String JFR_OPTIONS = "jdk.GarbageCollection#enabled=true,jdk.SafepointStateSynchronization#enabled=true," +
+            "jdk.SafepointStateSynchronization#threshold=0ms,jdk.ExecuteVMOperation#enabled=true,jdk.ExecuteVMOperation#threshold=0ms";
+
+    enum Kind {
+        /**
+         * Sum of the pauses of a garbage collection
+         */
+        GC_PAUSE("gc pause"),
+        /**
+         * Time to reach a safepoint, from the start of the synchronization till all threads are stopped
+         * (jdk.SafepointStateSynchronization), which a sampler can lengthen if it delays threads
+         */
+        SAFEPOINT_SYNCHRONIZATION("safepoint synchronization"),
+        /**
+         * Duration of a VM operation at a safepoint
+         */
+        VM_OPERATION("vm operation");
+
+        final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Log-linear histogram of durations with a relative error below 1/32
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        /**
+         * Values below are counted exactly
+         */
+        private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+        private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long max;
+
+        static int indexOf(long nanos) {
+            if (nanos < LINEAR_LIMIT) {
+                return (int) Math.max(0, nanos);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int mantissa = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+            return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + mantissa;
+        }
+
+        /**
+         * Largest value of the bucket
+         */
+        static long valueOf(int index) {
+            if (index < LINEAR_LIMIT) {
+                return index;
+            }
+            int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+            long mantissa = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+            return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        void record(long nanos) {
+            counts[indexOf(nanos)]++;
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long count() {
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        /**
+         * @param quantile between 0 and 1
+         * @return the upper bound of the value at the quantile, 0 if the histogram is empty
+         */
+        long percentile(double quantile) {
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(valueOf(i), max);
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Created on the first recorded value, as most chunks have no pauses of most kinds
+     */
+    private final Histogram[] histograms = new Histogram[Kind.values().length];
+
+    void record(Kind kind, long nanos) {
+        histogram(kind).record(nanos);
+    }
+
+    Histogram histogram(Kind kind) {
+        if (histograms[kind.ordinal()] == null) {
+            histograms[kind.ordinal()] = new Histogram();
+        }
+        return histograms[kind.ordinal()];
+    }
+
+    void add(PauseHistograms other) {
+        for (var kind : Kind.values()) {
+            if (other.histograms[kind.ordinal()] != null) {
+                histogram(kind).add(other.histograms[kind.ordinal()]);
+            }
+        }
+    }
+
+    /**
+     * Collects the pause histograms of the runs of a config with and without samplers
+     */
+    static class Comparison {
+        private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+        private final Main.OptionSet options;
+        private final PauseHistograms baseline = new PauseHistograms();
+        private final PauseHistograms profiled = new PauseHistograms();
+
+        Comparison(Main.OptionSet options) {
+            this.options = options;
+        }
+
+        void add(boolean isBaseline, PauseHistograms histograms) {
+            (isBaseline ? baseline : profiled).add(histograms);
+        }
+
+        /**
+         * One row per kind of pause: the percentiles and the maximum without and with samplers, and their deltas
+         */
+        List<List<String>> toCSV() {
+            List<List<String>> rows = new ArrayList<>();
+            for (var kind : Kind.values()) {
+                var without = baseline.histogram(kind);
+                var with = profiled.histogram(kind);
+                List<String> row = new ArrayList<>(options.toCSV());
+                row.addAll(List.of(kind.label, String.valueOf(without.count()), String.valueOf(with.count())));
+                List<Long> withoutValues = new ArrayList<>();
+                List<Long> withValues = new ArrayList<>();
+                for (double percentile : PERCENTILES) {
+                    withoutValues.add(without.percentile(percentile));
+                    withValues.add(with.percentile(percentile));
+                }
+                withoutValues.add(without.max());
+                withValues.add(with.max());
+                for (int i = 0; i < withoutValues.size(); i++) {
+                    row.addAll(Stream.of(withoutValues.get(i), withValues.get(i), withValues.get(i) - withoutValues.get(i))
+                            .map(nanos -> String.valueOf(nanos / 1_000_000.0)).toList());
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        static List<String> toCSVHeader() {
+            List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
+            csv.addAll(List.of("pause", "baseline pauses", "profiled pauses"));
+            for (String statistic : List.of("p50", "p99", "p99.9", "max")) {
+                csv.addAll(List.of("baseline " + statistic + " ms", "profiled " + statistic + " ms", statistic + " delta ms"));
+            }
+            return csv;
+        }
+    }
+}
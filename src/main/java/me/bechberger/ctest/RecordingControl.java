@@ -0,0 +1,260 @@
+package me.bechberger.ctest;
+
+import com.sun.tools.attach.AttachNotSupportedException;
+import com.sun.tools.attach.VirtualMachine;
+import jdk.management.jfr.ConfigurationInfo;
+import jdk.management.jfr.FlightRecorderMXBean;
+import jdk.management.jfr.RecordingInfo;
+
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Channel to stop and start recordings in a running child JVM
+ */
+interface RecordingControl extends AutoCloseable {
+
+    enum Kind {
+        /**
+         * Attach once and use the {@link FlightRecorderMXBean}, falls back to {@link #JCMD} on failures
+         */
+        JMX,
+        /**
+         * Start a new jcmd process for every operation
+         */
+        JCMD
+    }
+
+    /**
+     * Stop the recording and write it to the file
+     */
+    void stop(String name, Path jfrFile) throws IOException, InterruptedException;
+
+    /**
+     * Start a new recording with the JFR options of the java options
+     */
+    void start(String name, Path jfrFile, Main.JavaOptions javaOptions) throws IOException, InterruptedException;
+
+    @Override
+    void close();
+
+    static RecordingControl create(Kind kind, long pid) {
+        var jcmd = new JcmdControl(pid);
+        if (kind == Kind.JMX) {
+            try {
+                return JmxControl.attach(pid, jcmd);
+            } catch (IOException e) {
+                System.err.println("Cannot attach to " + pid + ", falling back to jcmd: " + e.getMessage());
+            }
+        }
+        return jcmd;
+    }
+
+    /**
+     * Latencies of the stop and start operations, the gap between two recordings is at most
+     * the sum of the latencies of a stop and the following start
+     */
+    class Latencies {
+        private int rotations;
+        private long stopNanos;
+        private long startNanos;
+        private long maxGapNanos;
+        private final List<Long> rotationEpochNanos = new ArrayList<>();
+
+        /**
+         * @param epochNanos time of the rotation
+         */
+        void record(long epochNanos, long stopNanos, long startNanos) {
+            rotationEpochNanos.add(epochNanos);
+            rotations++;
+            this.stopNanos += stopNanos;
+            this.startNanos += startNanos;
+            maxGapNanos = Math.max(maxGapNanos, stopNanos + startNanos);
+        }
+
+        int rotations() {
+            return rotations;
+        }
+
+        List<Long> rotationEpochNanos() {
+            return rotationEpochNanos;
+        }
+
+        double meanStopMillis() {
+            return rotations == 0 ? 0 : stopNanos / 1_000_000.0 / rotations;
+        }
+
+        double meanStartMillis() {
+            return rotations == 0 ? 0 : startNanos / 1_000_000.0 / rotations;
+        }
+
+        double maxGapMillis() {
+            return maxGapNanos / 1_000_000.0;
+        }
+
+        List<String> toCSV() {
+            return Stream.of(rotations, meanStopMillis(), meanStartMillis(), maxGapMillis()).map(Object::toString).toList();
+        }
+
+        static List<String> toCSVHeader() {
+            return List.of("rotations", "mean stop latency ms", "mean start latency ms", "max rotation gap ms");
+        }
+
+        @Override
+        public String toString() {
+            return "Latencies[rotations=" + rotations + ", meanStopMillis=" + meanStopMillis() + ", meanStartMillis=" + meanStartMillis() + ", maxGapMillis=" + maxGapMillis() + "]";
+        }
+    }
+
+    class JcmdControl implements RecordingControl {
+        private final long pid;
+
+        JcmdControl(long pid) {
+            this.pid = pid;
+        }
+
+        void jcmd(String... args) throws InterruptedException, IOException {
+            List<String> arguments = Arrays.stream(args).flatMap(s -> Stream.of(s.split(","))).toList();
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + "/bin/jcmd");
+            command.add(String.valueOf(pid));
+            command.addAll(arguments);
+            int exit = new ProcessBuilder(command).start().waitFor();
+            if (exit != 0) {
+                throw new IOException("jcmd failed: " + String.join(" ", command));
+            }
+        }
+
+        @Override
+        public void stop(String name, Path jfrFile) throws IOException, InterruptedException {
+            jcmd("JFR.stop", "name=" + name, "filename=" + jfrFile);
+        }
+
+        @Override
+        public void start(String name, Path jfrFile, Main.JavaOptions javaOptions) throws IOException, InterruptedException {
+            jcmd("JFR.start", "name=" + name, javaOptions.toJFROptions(jfrFile));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    class JmxControl implements RecordingControl {
+        private final JMXConnector connector;
+        private final FlightRecorderMXBean bean;
+        private final JcmdControl fallback;
+
+        private JmxControl(JMXConnector connector, FlightRecorderMXBean bean, JcmdControl fallback) {
+            this.connector = connector;
+            this.bean = bean;
+            this.fallback = fallback;
+        }
+
+        static JmxControl attach(long pid, JcmdControl fallback) throws IOException {
+            String url;
+            try {
+                VirtualMachine vm = VirtualMachine.attach(String.valueOf(pid));
+                try {
+                    url = vm.startLocalManagementAgent();
+                } finally {
+                    vm.detach();
+                }
+            } catch (AttachNotSupportedException e) {
+                throw new IOException(e);
+            }
+            JMXConnector connector = JMXConnectorFactory.connect(new JMXServiceURL(url));
+            try {
+                var bean = JMX.newMXBeanProxy(connector.getMBeanServerConnection(),
+                        new ObjectName(FlightRecorderMXBean.MXBEAN_NAME), FlightRecorderMXBean.class);
+                return new JmxControl(connector, bean, fallback);
+            } catch (MalformedObjectNameException | IOException e) {
+                connector.close();
+                throw new IOException(e);
+            }
+        }
+
+        private long recordingId(String name) throws IOException {
+            return bean.getRecordings().stream().filter(r -> r.getName().equals(name)).mapToLong(RecordingInfo::getId)
+                    .findFirst().orElseThrow(() -> new IOException("No recording named " + name));
+        }
+
+        @Override
+        public void stop(String name, Path jfrFile) throws IOException, InterruptedException {
+            try {
+                long id = recordingId(name);
+                // stopping a recording writes it to its destination and closes it
+                bean.setRecordingOptions(id, Map.of("destination", jfrFile.toString()));
+                bean.stopRecording(id);
+                if (bean.getRecordings().stream().anyMatch(r -> r.getId() == id)) {
+                    bean.closeRecording(id);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("JMX stop of " + name + " failed, using jcmd: " + e.getMessage());
+                fallback.stop(name, jfrFile);
+            }
+        }
+
+        @Override
+        public void start(String name, Path jfrFile, Main.JavaOptions javaOptions) throws IOException, InterruptedException {
+            try {
+                var settings = recordingSettings(javaOptions.jfrOptionList());
+                long id = bean.newRecording();
+                bean.setRecordingOptions(id, Map.of("name", name, "destination", jfrFile.toString(), "disk", "true"));
+                bean.setRecordingSettings(id, settings);
+                bean.startRecording(id);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("JMX start of " + name + " failed, using jcmd: " + e.getMessage());
+                fallback.start(name, jfrFile, javaOptions);
+            }
+        }
+
+        /**
+         * Resolve the JFR options (like jcmd's JFR.start would) into event settings:
+         * the settings of the predefined configuration, overridden by the event options
+         */
+        private Map<String, String> recordingSettings(List<String> jfrOptions) throws IOException {
+            String configuration = "default";
+            Map<String, String> overrides = new HashMap<>();
+            for (String option : jfrOptions) {
+                String[] keyValue = option.split("=", 2);
+                if (keyValue.length != 2) {
+                    throw new IOException("Unsupported JFR option " + option);
+                }
+                if (keyValue[0].equals("settings")) {
+                    configuration = keyValue[1].replaceAll("\\.jfc$", "");
+                } else if (keyValue[0].contains("#")) {
+                    overrides.put(keyValue[0], keyValue[1]);
+                } else {
+                    throw new IOException("Unsupported JFR option " + option);
+                }
+            }
+            String configurationName = configuration;
+            Map<String, String> settings = new HashMap<>(bean.getConfigurations().stream()
+                    .filter(c -> c.getName().equals(configurationName)).map(ConfigurationInfo::getSettings)
+                    .findFirst().orElseThrow(() -> new IOException("Unknown configuration " + configurationName)));
+            settings.putAll(overrides);
+            return settings;
+        }
+
+        @Override
+        public void close() {
+            try {
+                connector.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
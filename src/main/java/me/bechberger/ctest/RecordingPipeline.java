@@ -0,0 +1,137 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the recordings of a run in the background as soon as they are closed, and deletes them after parsing,
+ * so that long runs with many rotations only need the disk space of a few recordings
+ * and the counts are ready when the run ends.
+ * The sampler events of the recordings can be kept in an {@link Archive} instead.
+ */
+class RecordingPipeline implements AutoCloseable {
+
+    private final JFRParser parser;
+    private final boolean keepFiles;
+    /**
+     * Parses one recording at a time, the chunks of a recording are still parsed in parallel
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "recording-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The merged counts of the parsed recordings, only used by the executor thread, so that the counts
+     * of every recording can be dropped right after parsing it
+     */
+    private final JFRParser.Counts counts = new JFRParser.Counts();
+    /**
+     * The last submitted recording, the recordings are parsed in order
+     */
+    private Future<?> last;
+    /**
+     * Null if the recordings are not archived
+     */
+    private final Path archiveFile;
+    /**
+     * Opened with the first recording, only used by the executor thread
+     */
+    private Archive.Writer archive;
+
+    /**
+     * @param keepFiles   don't delete the recordings after parsing them
+     * @param archiveFile archive the recordings into this file before deleting them, null for no archive,
+     *                    the parser has to collect the archived events if set
+     */
+    RecordingPipeline(JFRParser parser, boolean keepFiles, Path archiveFile) {
+        this.parser = parser;
+        this.keepFiles = keepFiles;
+        this.archiveFile = archiveFile;
+    }
+
+    /**
+     * Parse the closed recording
+     */
+    synchronized void submit(Path jfrFile) {
+        last = executor.submit(() -> {
+            JFRParser.Counts recording;
+            try {
+                recording = parser.parseAll(List.of(jfrFile));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                recording = new JFRParser.Counts();
+                recording.files = 1;
+                recording.erroneousFiles = 1;
+            }
+            if (archiveFile != null) {
+                try {
+                    if (archive == null) {
+                        archive = new Archive.Writer(archiveFile);
+                    }
+                    archive.add(recording);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                // the merged counts only need the counters
+                recording.archive = null;
+            }
+            counts.add(recording);
+            if (!keepFiles) {
+                try {
+                    Files.deleteIfExists(jfrFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for all submitted recordings to be parsed
+     *
+     * @return the merged counts of all recordings
+     */
+    synchronized JFRParser.Counts finish() throws InterruptedException {
+        if (last != null) {
+            try {
+                last.get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        closeArchive();
+        return counts;
+    }
+
+    private void closeArchive() {
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            archive = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        executor.shutdownNow();
+        try {
+            // the archive is only complete once the recording that is being archived is done
+            if (executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                closeArchive();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package me.bechberger.ctest;
+
+import picocli.CommandLine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static picocli.CommandLine.Command;
+import static picocli.CommandLine.Option;
+
+/**
+ * Append-only binary log of the results of all runs, with an in-memory index of the completed runs per config
+ * <p>
+ * Every record is prefixed by its length and CRC32, so a record torn by a crash is detected and cut off
+ * when the store is opened again. Records belong to a campaign, which allows resuming a campaign.
+ */
+class ResultStore implements AutoCloseable {
+
+    /**
+     * "CTRS"
+     */
+    private static final int MAGIC = 0x43545253;
+    private static final int VERSION = 2;
+    /**
+     * Version whose keys and rows don't have the java executable, they are migrated when the store is opened
+     */
+    private static final int VERSION_WITHOUT_JAVA = 1;
+    /**
+     * The java executable of the runs of {@link #VERSION_WITHOUT_JAVA} stores, the default of {@code --java}
+     */
+    private static final String DEFAULT_JAVA = "java";
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * A stored result
+     *
+     * @param key the option set and the java executable of the run, as in {@link Main.OptionSet#toCSV(String)}
+     * @param row the full CSV row of the run, as in {@link BenchmarkRunner.Result#toCSV()}
+     */
+    record Entry(String campaign, List<String> key, long duration, boolean error, boolean aborted, boolean reasonable,
+                 boolean hang, boolean crash, List<String> row) {
+
+        static Entry of(String campaign, BenchmarkRunner.Result result) {
+            return new Entry(campaign, result.options().toCSV(result.java()), result.duration(), result.error(), result.aborted(),
+                    result.isReasonable(), result.hang(), result.crash(), result.toCSV());
+        }
+
+        /**
+         * The entry with the java executable appended to the key and the row, for entries without it
+         */
+        Entry withJava(String java) {
+            List<String> keyWithJava = new ArrayList<>(key);
+            keyWithJava.add(java);
+            List<String> rowWithJava = new ArrayList<>(row);
+            rowWithJava.add(java);
+            return new Entry(campaign, keyWithJava, duration, error, aborted, reasonable, hang, crash, rowWithJava);
+        }
+
+        /**
+         * Same as {@link BenchmarkRunner.Result#failed()}
+         */
+        boolean failed() {
+            return error || aborted || hang || crash || (samplesCpuTime() && !reasonable);
+        }
+
+        /**
+         * Same as {@link BenchmarkRunner.Result#samplesCpuTime()}
+         */
+        boolean samplesCpuTime() {
+            String sampler = key.get(Main.OptionSet.toCSVHeader().indexOf("sampler"));
+            return Stream.of(Main.Sampler.values())
+                    .anyMatch(s -> s.toCSVValue().equals(sampler) && s.cpuTimeSamplePeriodMillis(Main.SamplingPeriod.DEFAULT) > 0);
+        }
+
+        byte[] serialize() throws IOException {
+            var bytes = new ByteArrayOutputStream();
+            try (var out = new DataOutputStream(bytes)) {
+                out.writeUTF(campaign);
+                writeStrings(out, key);
+                out.writeLong(duration);
+                out.writeByte((error ? 1 : 0) | (aborted ? 2 : 0) | (reasonable ? 4 : 0) | (hang ? 8 : 0) | (crash ? 16 : 0));
+                writeStrings(out, row);
+            }
+            return bytes.toByteArray();
+        }
+
+        static Entry deserialize(byte[] bytes) throws IOException {
+            try (var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+                String campaign = in.readUTF();
+                List<String> key = readStrings(in);
+                long duration = in.readLong();
+                int flags = in.readByte();
+                return new Entry(campaign, key, duration, (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0,
+                        (flags & 8) != 0, (flags & 16) != 0, readStrings(in));
+            }
+        }
+
+        private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+            out.writeShort(strings.size());
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+        }
+
+        private static List<String> readStrings(DataInputStream in) throws IOException {
+            int size = in.readUnsignedShort();
+            List<String> strings = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                strings.add(in.readUTF());
+            }
+            return strings;
+        }
+    }
+
+    private final DataOutputStream out;
+    /**
+     * Number of stored runs per campaign, config and JDK
+     */
+    private final Map<String, Map<List<String>, Integer>> completedRuns = new HashMap<>();
+    /**
+     * Statistics of the runs of a config on a JDK over all campaigns
+     *
+     * @param maxDuration longest duration of a run that neither hung nor had an error, 0 if there is none
+     */
+    record ConfigStats(long runs, long failures, long maxDuration) {
+
+        static final ConfigStats NONE = new ConfigStats(0, 0, 0);
+
+        ConfigStats add(Entry entry) {
+            return new ConfigStats(runs + 1, failures + (entry.failed() ? 1 : 0),
+                    entry.hang() || entry.crash() || entry.error() ? maxDuration : Math.max(maxDuration, entry.duration()));
+        }
+    }
+
+    private final Map<List<String>, ConfigStats> stats = new HashMap<>();
+
+    private ResultStore(Path file) throws IOException {
+        if (version(file) == VERSION_WITHOUT_JAVA) {
+            migrate(file);
+        }
+        long validLength = Files.exists(file) ? read(file, this::index) : 0;
+        if (validLength == 0) {
+            try (var header = new DataOutputStream(Files.newOutputStream(file))) {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+            }
+        } else if (validLength < Files.size(file)) {
+            System.err.println("Cutting off a torn record at the end of " + file);
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * Rewrite a store without the java executables as a current store, keeping the old one next to it
+     */
+    private static void migrate(Path file) throws IOException {
+        Path old = file.resolveSibling(file.getFileName() + ".v" + VERSION_WITHOUT_JAVA);
+        Files.move(file, old);
+        try (var migrated = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            migrated.writeInt(MAGIC);
+            migrated.writeInt(VERSION);
+            read(old, entry -> {
+                try {
+                    writeRecord(migrated, entry);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        System.err.println("Migrated the result store " + file + " to version " + VERSION + ", with all runs on " + DEFAULT_JAVA
+                + ", the old store is " + old);
+    }
+
+    static ResultStore open(Path file) {
+        try {
+            return new ResultStore(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void index(Entry entry) {
+        completedRuns.computeIfAbsent(entry.campaign(), c -> new HashMap<>()).merge(entry.key(), 1, Integer::sum);
+        stats.put(entry.key(), stats.getOrDefault(entry.key(), ConfigStats.NONE).add(entry));
+    }
+
+    /**
+     * Append the entry and flush it, so it survives a crash of this process
+     */
+    synchronized void append(Entry entry) throws IOException {
+        writeRecord(out, entry);
+        out.flush();
+        index(entry);
+    }
+
+    private static void writeRecord(DataOutputStream out, Entry entry) throws IOException {
+        byte[] payload = entry.serialize();
+        var crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    synchronized int completedRuns(String campaign, List<String> key) {
+        return completedRuns.getOrDefault(campaign, Map.of()).getOrDefault(key, 0);
+    }
+
+    synchronized ConfigStats stats(List<String> key) {
+        return stats.getOrDefault(key, ConfigStats.NONE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * @return the version of the store, -1 if the file doesn't exist or is shorter than the header
+     */
+    private static int version(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+            return -1;
+        }
+        try (var in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readInt() == MAGIC ? in.readInt() : 0;
+        }
+    }
+
+    /**
+     * Stream all intact entries of the store to the consumer, entries of {@link #VERSION_WITHOUT_JAVA} stores
+     * get the default java executable
+     *
+     * @return the length of the intact part of the file, 0 if it isn't a store
+     */
+    static long read(Path file, Consumer<Entry> consumer) throws IOException {
+        try (InputStream stream = Files.newInputStream(file);
+             var in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " isn't a result store, move or rename it or choose another --store-file");
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_WITHOUT_JAVA) {
+                throw new IOException("Unsupported version " + version + " of the result store " + file
+                        + ", move or rename it or choose another --store-file");
+            }
+            long validLength = HEADER_SIZE;
+            var crc = new CRC32();
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0) {
+                        return validLength;
+                    }
+                    payload = in.readNBytes(length);
+                    if (payload.length < length) {
+                        return validLength;
+                    }
+                } catch (EOFException e) {
+                    return validLength;
+                }
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    return validLength;
+                }
+                var entry = Entry.deserialize(payload);
+                consumer.accept(version == VERSION_WITHOUT_JAVA ? entry.withJava(DEFAULT_JAVA) : entry);
+                validLength += 8 + payload.length;
+            }
+        } catch (EOFException e) {
+            // shorter than the header
+            return 0;
+        }
+    }
+
+    /**
+     * Aggregates the stored results per group of config columns, sorted by the number of failed runs
+     */
+    @Command(name = "query", mixinStandardHelpOptions = true,
+            description = "Summarizes the results in the result store and exports them as CSV.")
+    static class QueryCommand implements Runnable {
+
+        @Option(names = "--store-file", description = "The result store to read.")
+        String storeFile = "results.bin";
+
+        @Option(names = "--campaign", description = "Only use the results of this campaign, all campaigns if not set.")
+        String campaign;
+
+        @Option(names = "--group-by", description = "The config columns to group by, e.g. sampler,gc. Possible values: benchmark, sampler, sampling period, gc, max chunk size, heap size, duration, java", split = ",")
+        List<String> groupBy = Main.OptionSet.toCSVHeaderWithJava();
+
+        @Option(names = "--top", description = "The number of groups to print, -1 for all.")
+        int top = -1;
+
+        @Option(names = "--export", description = "Export the matching results to this CSV file, in the format of the results CSV file.")
+        String exportFile;
+
+        private static class Aggregate {
+            long runs;
+            long errors;
+            long aborted;
+            long hangs;
+            long crashes;
+            long unreasonable;
+            long failed;
+            long durationSum;
+
+            void add(Entry entry) {
+                runs++;
+                errors += entry.error() ? 1 : 0;
+                aborted += entry.aborted() ? 1 : 0;
+                hangs += entry.hang() ? 1 : 0;
+                crashes += entry.crash() ? 1 : 0;
+                unreasonable += entry.samplesCpuTime() && !entry.reasonable() ? 1 : 0;
+                failed += entry.failed() ? 1 : 0;
+                durationSum += entry.duration();
+            }
+
+            List<String> toCSV() {
+                return Stream.of(runs, errors, aborted, hangs, crashes, unreasonable, failed, (double) failed / runs, durationSum / runs)
+                        .map(Object::toString).toList();
+            }
+
+            static List<String> toCSVHeader() {
+                return List.of("runs", "errors", "aborted", "hangs", "crashes", "unreasonable", "failed", "failure rate", "mean duration");
+            }
+        }
+
+        @Override
+        public void run() {
+            List<String> header = Main.OptionSet.toCSVHeaderWithJava();
+            int[] columns = groupBy.stream().mapToInt(header::indexOf).toArray();
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] == -1) {
+                    throw new CommandLine.ParameterException(new CommandLine(this), "Unknown column " + groupBy.get(i));
+                }
+            }
+            Map<List<String>, Aggregate> aggregates = new HashMap<>();
+            try (var export = exportFile == null ? null : Files.newBufferedWriter(Path.of(exportFile))) {
+                if (export != null) {
+                    export.write(String.join(",", BenchmarkRunner.Result.toCSVHeader()) + "\n");
+                }
+                read(Path.of(storeFile), entry -> {
+                    if (campaign != null && !campaign.equals(entry.campaign())) {
+                        return;
+                    }
+                    List<String> group = new ArrayList<>(columns.length);
+                    for (int column : columns) {
+                        group.add(entry.key().get(column));
+                    }
+                    aggregates.computeIfAbsent(group, g -> new Aggregate()).add(entry);
+                    if (export != null) {
+                        try {
+                            export.write(String.join(",", entry.row()) + "\n");
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            List<String> outputHeader = new ArrayList<>(groupBy);
+            outputHeader.addAll(Aggregate.toCSVHeader());
+            System.out.println(String.join(",", outputHeader));
+            aggregates.entrySet().stream()
+                    .sorted(Comparator.comparingLong((Map.Entry<List<String>, Aggregate> e) -> e.getValue().failed).reversed()
+                            .thenComparing(e -> String.join(",", e.getKey())))
+                    .limit(top == -1 ? Long.MAX_VALUE : top)
+                    .forEach(e -> {
+                        List<String> row = new ArrayList<>(e.getKey());
+                        row.addAll(e.getValue().toCSV());
+                        System.out.println(String.join(",", row));
+                    });
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Stresses the starting and stopping of the samplers: multiple named recordings with different sampling periods
+ * run next to the recording of the run and are rotated on staggered schedules, much faster than the rotations
+ * of the {@link BenchmarkRunner.JFRStartAndStopLoop}.
+ * <p>
+ * The recordings of the run show how many samples are lost in the timeline buckets with start or stop operations,
+ * compared to the buckets without.
+ */
+class RotationStress {
+
+    /**
+     * Time the child gets to start up before the first operation
+     */
+    private static final long STARTUP_MILLIS = 1000;
+
+    /**
+     * @param intervalMillis  time between two rotations of the same recording
+     * @param recordings      number of concurrent stress recordings
+     * @param samplingPeriods sampling periods of the recordings, recording i uses period i modulo their number
+     * @param bucketMillis    width of the timeline buckets the transitions are located in
+     */
+    record Settings(int intervalMillis, int recordings, List<Main.SamplingPeriod> samplingPeriods, int bucketMillis) {
+    }
+
+    /**
+     * Rotates the stress recordings till it is interrupted
+     */
+    static class Loop implements Runnable {
+        private final Settings settings;
+        private final Main.OptionSet options;
+        private final ProcessHandle process;
+        private final RecordingControl.Kind controlChannel;
+        private final Path folder;
+        private final PauseHistograms.Histogram startLatencies = new PauseHistograms.Histogram();
+        private final PauseHistograms.Histogram stopLatencies = new PauseHistograms.Histogram();
+        private final List<Long> operationEpochNanos = new ArrayList<>();
+        private int failedOperations;
+
+        /**
+         * @param folder folder for the stopped recordings, which are deleted right away
+         */
+        Loop(Settings settings, Main.OptionSet options, ProcessHandle process, RecordingControl.Kind controlChannel, Path folder) {
+            this.settings = settings;
+            this.options = options;
+            this.process = process;
+            this.controlChannel = controlChannel;
+            this.folder = folder;
+        }
+
+        private Main.JavaOptions javaOptions(int recording) {
+            var javaOptions = new Main.JavaOptions();
+            var periods = settings.samplingPeriods();
+            javaOptions.addJfrOption(options.sampler().config(periods.get(recording % periods.size())));
+            return javaOptions;
+        }
+
+        @Override
+        public void run() {
+            int recordings = settings.recordings();
+            long intervalNanos = settings.intervalMillis() * 1_000_000L;
+            List<Main.JavaOptions> javaOptions = new ArrayList<>();
+            long[] next = new long[recordings];
+            boolean[] running = new boolean[recordings];
+            RecordingControl control = null;
+            try {
+                Files.createDirectories(folder);
+                for (int i = 0; i < recordings; i++) {
+                    javaOptions.add(javaOptions(i));
+                }
+                Thread.sleep(STARTUP_MILLIS);
+                control = RecordingControl.create(controlChannel, process.pid());
+                long begin = System.nanoTime();
+                for (int i = 0; i < recordings; i++) {
+                    next[i] = begin + i * intervalNanos / recordings;
+                }
+                for (int rotation = 0; process.isAlive(); rotation++) {
+                    int recording = 0;
+                    for (int i = 1; i < recordings; i++) {
+                        if (next[i] < next[recording]) {
+                            recording = i;
+                        }
+                    }
+                    long sleep = next[recording] - System.nanoTime();
+                    if (sleep > 0) {
+                        Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                    }
+                    running[recording] = rotate(control, recording, rotation, running[recording], javaOptions.get(recording));
+                    // don't catch up with a burst of operations if the operations are slower than the schedule
+                    next[recording] = Math.max(next[recording] + intervalNanos, System.nanoTime());
+                }
+            } catch (InterruptedException e) {
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (control != null) {
+                    control.close();
+                }
+            }
+        }
+
+        /**
+         * Stop the recording if it is running and start it again
+         *
+         * @return whether the recording is running
+         */
+        private boolean rotate(RecordingControl control, int recording, int rotation, boolean running,
+                               Main.JavaOptions javaOptions) throws IOException, InterruptedException {
+            String name = "stress-" + recording;
+            Path jfrFile = folder.resolve(name + "_" + rotation + ".jfr").toAbsolutePath();
+            if (running) {
+                running = !operation(() -> control.stop(name, jfrFile), stopLatencies);
+                Files.deleteIfExists(jfrFile);
+            }
+            if (!running) {
+                running = operation(() -> control.start(name, jfrFile, javaOptions), startLatencies);
+            }
+            return running;
+        }
+
+        private interface Operation {
+            void run() throws IOException, InterruptedException;
+        }
+
+        /**
+         * @return whether the operation succeeded, failures after the child exited are not counted
+         */
+        private boolean operation(Operation operation, PauseHistograms.Histogram latencies) throws InterruptedException {
+            long epochNanos = JFRParser.epochNanos(Instant.now());
+            long start = System.nanoTime();
+            try {
+                operation.run();
+            } catch (IOException e) {
+                if (process.isAlive()) {
+                    System.err.println("Stress operation failed: " + e.getMessage());
+                    failedOperations++;
+                }
+                return false;
+            }
+            latencies.record(System.nanoTime() - start);
+            operationEpochNanos.add(epochNanos);
+            return true;
+        }
+
+        /**
+         * Only valid after the loop finished
+         *
+         * @param timeline the sample counts of the run, in buckets of {@link Settings#bucketMillis()}, null if there are none
+         */
+        Report report(Timeline timeline) {
+            long operations = startLatencies.count() + stopLatencies.count();
+            double seconds = operationEpochNanos.size() < 2 ? Double.NaN :
+                    (operationEpochNanos.getLast() - operationEpochNanos.getFirst()) / 1e9;
+            Timeline.Samples atTransitions = null;
+            Timeline.Samples betweenTransitions = null;
+            if (timeline != null && !operationEpochNanos.isEmpty()) {
+                var buckets = timeline.buckets();
+                boolean[] transitions = new boolean[buckets.indexOf(operationEpochNanos.getLast()) + 1];
+                operationEpochNanos.forEach(t -> transitions[buckets.indexOf(t)] = true);
+                // only the buckets while the stress recordings rotate
+                int first = buckets.indexOf(operationEpochNanos.getFirst());
+                int last = transitions.length - 1;
+                atTransitions = timeline.samples(first, last, i -> transitions[i]);
+                betweenTransitions = timeline.samples(first, last, i -> !transitions[i]);
+            }
+            return new Report(settings, operations, failedOperations, operations / seconds, startLatencies, stopLatencies,
+                    atTransitions, betweenTransitions);
+        }
+    }
+
+    /**
+     * Operation rate and latencies of a stress run, and the samples in the buckets with and without transitions
+     *
+     * @param atTransitions      samples of the buckets with a start or stop operation, null without timeline
+     * @param betweenTransitions samples of the other buckets, null without timeline
+     */
+    record Report(Settings settings, long operations, int failedOperations, double operationsPerSecond,
+                  PauseHistograms.Histogram startLatencies, PauseHistograms.Histogram stopLatencies,
+                  Timeline.Samples atTransitions, Timeline.Samples betweenTransitions) {
+
+        List<String> toCSV(Main.OptionSet options) {
+            List<String> csv = new ArrayList<>(options.toCSV());
+            csv.addAll(Stream.of(settings.recordings(), settings.intervalMillis(), operations, failedOperations, operationsPerSecond,
+                    millis(startLatencies.percentile(0.5)), millis(startLatencies.percentile(0.99)), millis(startLatencies.max()),
+                    millis(stopLatencies.percentile(0.5)), millis(stopLatencies.percentile(0.99)), millis(stopLatencies.max()))
+                    .map(Object::toString).toList());
+            for (var samples : List.of(atTransitions, betweenTransitions)) {
+                csv.addAll(samples == null ? List.of("", "", "") :
+                        Stream.of(samples.buckets(), samples.lossRate(), samples.validPerBucket()).map(Object::toString).toList());
+            }
+            return csv;
+        }
+
+        static List<String> toCSVHeader() {
+            List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
+            csv.addAll(List.of("stress recordings", "stress interval ms", "operations", "failed operations", "operations per second",
+                    "start p50 ms", "start p99 ms", "start max ms", "stop p50 ms", "stop p99 ms", "stop max ms",
+                    "transition buckets", "loss rate at transitions", "valid cpu time events per transition bucket",
+                    "other buckets", "loss rate between transitions", "valid cpu time events per other bucket"));
+            return csv;
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
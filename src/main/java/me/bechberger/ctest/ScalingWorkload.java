@@ -0,0 +1,95 @@
+package me.bechberger.ctest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Offline thread-count scaling workload, started as the main class of the child JVM
+ * by {@link BenchmarkRunner.ScalingBenchmarkRunner}
+ * <p>
+ * Runs the kernels of the {@link SyntheticWorkload} in phases with 1, 2, 4, ... up to the maximum number of
+ * platform threads, and then with the same numbers of virtual threads on the carrier pool. Every phase is reported
+ * as an iteration of the benchmark "platform-N" or "virtual-N", so the samples are attributed to the thread counts.
+ */
+public class ScalingWorkload {
+
+    private static volatile long sink;
+
+    /**
+     * The thread counts of the phases, powers of two up to and including the maximum
+     */
+    static List<Integer> threadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int count = 1; count < maxThreads; count *= 2) {
+            counts.add(count);
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+
+    /**
+     * The kernels without the CPU time accounting and cycle recording of {@link SyntheticWorkload#work(long)},
+     * which doesn't work for virtual threads, so that platform and virtual threads do the same work
+     *
+     * @param yield yield after every cycle, so that all virtual threads get their share of the carriers
+     */
+    static void kernelWork(long endNanos, boolean yield) {
+        var deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] out = new byte[64 * 1024];
+        long result = 0;
+        while (System.nanoTime() < endNanos) {
+            result += SyntheticWorkload.javaKernel(64);
+            result += SyntheticWorkload.nativeKernel(deflater, out);
+            result += SyntheticWorkload.transitionKernel(deflater, out);
+            if (yield) {
+                Thread.yield();
+            }
+        }
+        deflater.end();
+        sink += result;
+    }
+
+    private static long epochNanos() {
+        var now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    /**
+     * Usage: ScalingWorkload max_threads phase_seconds iteration_times_csv
+     * <p>
+     * The CSV file receives the phases in the format of renaissance's {@code --csv}, with the columns to locate them in time
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int maxThreads = Integer.parseInt(args[0]);
+        long phaseNanos = Long.parseLong(args[1]) * 1_000_000_000L;
+        long vmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,duration_ns,uptime_ns,vm_start_unix_ms");
+        for (boolean virtual : List.of(false, true)) {
+            for (int threads : threadCounts(maxThreads)) {
+                String name = (virtual ? "virtual-" : "platform-") + threads;
+                long startEpochNanos = epochNanos();
+                long start = System.nanoTime();
+                long endNanos = start + phaseNanos;
+                List<Thread> workers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    workers.add(virtual ? Thread.ofVirtual().name(name + "-" + i).start(() -> kernelWork(endNanos, true))
+                            : Thread.ofPlatform().name(name + "-" + i).start(() -> kernelWork(endNanos, false)));
+                }
+                for (var worker : workers) {
+                    worker.join();
+                }
+                long duration = System.nanoTime() - start;
+                lines.add(name + "," + duration + "," + (startEpochNanos - vmStartMillis * 1_000_000) + "," + vmStartMillis);
+                System.out.println("Finished phase " + name);
+            }
+        }
+        Files.write(Path.of(args[2]), lines);
+    }
+}
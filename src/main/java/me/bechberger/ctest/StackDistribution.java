@@ -0,0 +1,168 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Histograms of the top frames and stack depths of the samples of one sampler, to compare the biases of samplers
+ * <p>
+ * Methods are interned to dense int ids, so the histograms are plain arrays indexed by id and depth.
+ */
+class StackDistribution {
+
+    /**
+     * Interns methods to dense ids, shared by all chunks of a run, so that their histograms can be merged
+     */
+    static class MethodIds {
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final AtomicInteger next = new AtomicInteger();
+
+        /**
+         * Cache for a single chunk: the parser returns the same {@link RecordedMethod} object for every
+         * reference to a method in a chunk, so the key is only built once per method and chunk
+         */
+        Map<RecordedMethod, Integer> chunkCache() {
+            return new IdentityHashMap<>();
+        }
+
+        int idOf(RecordedMethod method, Map<RecordedMethod, Integer> chunkCache) {
+            Integer id = chunkCache.get(method);
+            if (id == null) {
+                id = idOf(keyOf(method));
+                chunkCache.put(method, id);
+            }
+            return id;
+        }
+
+        int idOf(String key) {
+            return ids.computeIfAbsent(key, k -> next.getAndIncrement());
+        }
+
+        static String keyOf(RecordedMethod method) {
+            return method.getType().getName() + "." + method.getName() + method.getDescriptor();
+        }
+    }
+
+    private int[] topFrames = new int[0];
+    private int[] depths = new int[0];
+    private long samples;
+    private long truncated;
+
+    /**
+     * @param topFrame id of the top frame, -1 for empty stacks and unresolved top frames
+     * @see #add(int, boolean, int)
+     */
+    void add(RecordedStackTrace stackTrace, int topFrame) {
+        add(stackTrace.getFrames().size(), stackTrace.isTruncated(), topFrame);
+    }
+
+    /**
+     * Empty stacks are ignored: they are counted as empty samples by the parser, and depth 0 would only
+     * show up in the histogram of the CPU time sampler and skew the depth divergence
+     *
+     * @param topFrame id of the top frame, -1 for unresolved top frames
+     */
+    void add(int depth, boolean isTruncated, int topFrame) {
+        if (depth == 0) {
+            return;
+        }
+        samples++;
+        if (isTruncated) {
+            truncated++;
+        }
+        if (depth >= depths.length) {
+            depths = Arrays.copyOf(depths, Math.max(depth + 1, depths.length * 2));
+        }
+        depths[depth]++;
+        if (topFrame != -1) {
+            if (topFrame >= topFrames.length) {
+                topFrames = Arrays.copyOf(topFrames, Math.max(topFrame + 1, topFrames.length * 2));
+            }
+            topFrames[topFrame]++;
+        }
+    }
+
+    void add(StackDistribution other) {
+        topFrames = addArrays(topFrames, other.topFrames);
+        depths = addArrays(depths, other.depths);
+        samples += other.samples;
+        truncated += other.truncated;
+    }
+
+    private static int[] addArrays(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) {
+            result[i] += b[i];
+        }
+        return result;
+    }
+
+    double truncatedRate() {
+        return samples == 0 ? Double.NaN : (double) truncated / samples;
+    }
+
+    double meanDepth() {
+        long sum = 0;
+        for (int depth = 0; depth < depths.length; depth++) {
+            sum += (long) depth * depths[depth];
+        }
+        return samples == 0 ? Double.NaN : (double) sum / samples;
+    }
+
+    /**
+     * Jensen-Shannon divergence (base 2) of two histograms, 0 for equal and 1 for disjoint distributions,
+     * NaN if one of them is empty
+     */
+    static double divergence(int[] a, int[] b) {
+        long sumA = Arrays.stream(a).asLongStream().sum();
+        long sumB = Arrays.stream(b).asLongStream().sum();
+        if (sumA == 0 || sumB == 0) {
+            return Double.NaN;
+        }
+        double result = 0;
+        for (int i = 0; i < Math.max(a.length, b.length); i++) {
+            double p = i < a.length ? (double) a[i] / sumA : 0;
+            double q = i < b.length ? (double) b[i] / sumB : 0;
+            double m = (p + q) / 2;
+            if (p > 0) {
+                result += p * Math.log(p / m) / 2;
+            }
+            if (q > 0) {
+                result += q * Math.log(q / m) / 2;
+            }
+        }
+        return result / Math.log(2);
+    }
+
+    /**
+     * Comparison of the CPU time sampler with the other samplers, only collected if both are enabled
+     */
+    record Comparison(StackDistribution cpuTime, StackDistribution other) {
+
+        double topFrameDivergence() {
+            return divergence(cpuTime.topFrames, other.topFrames);
+        }
+
+        double depthDivergence() {
+            return divergence(cpuTime.depths, other.depths);
+        }
+
+        List<String> toCSV() {
+            return Stream.of(topFrameDivergence(), depthDivergence(), cpuTime.meanDepth(), other.meanDepth(),
+                    cpuTime.truncatedRate(), other.truncatedRate()).map(Object::toString).toList();
+        }
+
+        static List<String> toCSVHeader() {
+            return List.of("top frame divergence", "stack depth divergence", "cpu time mean stack depth",
+                    "other sampler mean stack depth", "cpu time truncated rate", "other sampler truncated rate");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package me.bechberger.ctest;
+
+/**
+ * Small statistics helpers for comparing two sets of measurements
+ */
+class Statistics {
+
+    private Statistics() {
+    }
+
+    static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return values.length == 0 ? Double.NaN : sum / values.length;
+    }
+
+    /**
+     * Sample variance, NaN for less than two values
+     */
+    static double variance(double[] values) {
+        if (values.length < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return sum / (values.length - 1);
+    }
+
+    /**
+     * Welch's t-test for the difference of the means of two samples with possibly different variances
+     *
+     * @param difference      mean(a) - mean(b)
+     * @param standardError   standard error of the difference
+     * @param degreesOfFreedom Welch–Satterthwaite degrees of freedom
+     */
+    record Welch(double difference, double standardError, double degreesOfFreedom) {
+
+        double t() {
+            return difference / standardError;
+        }
+
+        /**
+         * Two-sided p-value of the null hypothesis that both means are equal
+         */
+        double pValue() {
+            return 2 * (1 - tCdf(Math.abs(t()), degreesOfFreedom));
+        }
+
+        /**
+         * Two-sided confidence interval of the difference, e.g. level=0.95
+         */
+        double[] confidenceInterval(double level) {
+            double margin = tQuantile(1 - (1 - level) / 2, degreesOfFreedom) * standardError;
+            return new double[]{difference - margin, difference + margin};
+        }
+    }
+
+    static Welch welch(double[] a, double[] b) {
+        double varianceA = variance(a) / a.length;
+        double varianceB = variance(b) / b.length;
+        double standardError = Math.sqrt(varianceA + varianceB);
+        double degreesOfFreedom = (varianceA + varianceB) * (varianceA + varianceB) /
+                (varianceA * varianceA / (a.length - 1) + varianceB * varianceB / (b.length - 1));
+        return new Welch(mean(a) - mean(b), standardError, degreesOfFreedom);
+    }
+
+    /**
+     * Hedges' g: the difference of the means, mean(a) - mean(b), in units of the pooled standard deviation,
+     * corrected for the bias of small samples, NaN for less than two values per sample or no variance
+     */
+    static double hedgesG(double[] a, double[] b) {
+        if (a.length < 2 || b.length < 2) {
+            return Double.NaN;
+        }
+        int n = a.length + b.length;
+        double pooledVariance = ((a.length - 1) * variance(a) + (b.length - 1) * variance(b)) / (n - 2);
+        if (!(pooledVariance > 0)) {
+            return Double.NaN;
+        }
+        return (mean(a) - mean(b)) / Math.sqrt(pooledVariance) * (1 - 3.0 / (4 * n - 9));
+    }
+
+    /**
+     * Two-sided p-value of Fisher's exact test of the null hypothesis that the events
+     * occur at the same rate in both groups
+     *
+     * @param eventsA number of runs of group a with the event, out of runsA
+     */
+    static double fisherExact(int eventsA, int runsA, int eventsB, int runsB) {
+        int events = eventsA + eventsB;
+        double observed = hypergeometric(eventsA, runsA, runsB, events);
+        double p = 0;
+        for (int k = Math.max(0, events - runsB); k <= Math.min(events, runsA); k++) {
+            double probability = hypergeometric(k, runsA, runsB, events);
+            // tolerance for rounding errors of tables as likely as the observed one
+            if (probability <= observed * (1 + 1e-7)) {
+                p += probability;
+            }
+        }
+        return Math.min(1, p);
+    }
+
+    /**
+     * Probability that k of the events fall into group a
+     */
+    private static double hypergeometric(int k, int runsA, int runsB, int events) {
+        return Math.exp(logBinomial(runsA, k) + logBinomial(runsB, events - k) - logBinomial(runsA + runsB, events));
+    }
+
+    private static double logBinomial(int n, int k) {
+        return logGamma(n + 1) - logGamma(k + 1) - logGamma(n - k + 1);
+    }
+
+    /**
+     * Cumulative distribution function of Student's t-distribution
+     */
+    static double tCdf(double t, double degreesOfFreedom) {
+        if (Double.isNaN(t) || Double.isNaN(degreesOfFreedom)) {
+            return Double.NaN;
+        }
+        if (Double.isInfinite(t)) {
+            return t > 0 ? 1 : 0;
+        }
+        double tail = 0.5 * regularizedIncompleteBeta(degreesOfFreedom / (degreesOfFreedom + t * t), degreesOfFreedom / 2, 0.5);
+        return t >= 0 ? 1 - tail : tail;
+    }
+
+    /**
+     * Inverse of {@link #tCdf(double, double)}, found by bisection
+     */
+    static double tQuantile(double p, double degreesOfFreedom) {
+        if (Double.isNaN(p) || Double.isNaN(degreesOfFreedom)) {
+            return Double.NaN;
+        }
+        double low = -1e6;
+        double high = 1e6;
+        for (int i = 0; i < 200 && high - low > 1e-9; i++) {
+            double middle = (low + high) / 2;
+            if (tCdf(middle, degreesOfFreedom) < p) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * Regularized incomplete beta function I_x(a, b), evaluated via its continued fraction
+     */
+    static double regularizedIncompleteBeta(double x, double a, double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+        if (x < (a + 1) / (a + b + 2)) {
+            return front * betaContinuedFraction(x, a, b) / a;
+        }
+        return 1 - front * betaContinuedFraction(1 - x, b, a) / b;
+    }
+
+    private static double betaContinuedFraction(double x, double a, double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double result = d;
+        for (int m = 1; m <= 300; m++) {
+            int m2 = 2 * m;
+            double numerator = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 / nonZero(1 + numerator * d, tiny);
+            c = nonZero(1 + numerator / c, tiny);
+            result *= d * c;
+            numerator = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 / nonZero(1 + numerator * d, tiny);
+            c = nonZero(1 + numerator / c, tiny);
+            double delta = d * c;
+            result *= delta;
+            if (Math.abs(delta - 1) < 1e-12) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static double nonZero(double value, double tiny) {
+        return Math.abs(value) < tiny ? tiny : value;
+    }
+
+    /**
+     * Lanczos approximation of ln(Γ(x))
+     */
+    static double logGamma(double x) {
+        final double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+}
@@ -0,0 +1,145 @@
+package me.bechberger.ctest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sweeps the sampling period of a config from the slowest to the fastest period, to find its saturation point:
+ * the period at which the CPU time sampler loses more samples than acceptable
+ */
+class Sweep {
+
+    private Sweep() {
+    }
+
+    /**
+     * Groups of configs that only differ in their sampling period, with all the periods for every config
+     * (regardless of the coverage the configs were generated with), every group sorted from the slowest
+     * to the fastest period
+     * <p>
+     * Only configs with the CPU time sampler are swept, as its loss rate defines the saturation.
+     */
+    static Collection<List<Main.OptionSet>> groups(List<Main.OptionSet> optionSets, List<Main.SamplingPeriod> periods) {
+        Map<List<String>, List<Main.OptionSet>> groups = new LinkedHashMap<>();
+        for (var options : optionSets) {
+            if (options.sampler().cpuTimeSamplePeriodMillis(options.samplingPeriod()) <= 0) {
+                continue;
+            }
+            groups.computeIfAbsent(groupKey(options), k -> periods.stream().map(period -> withPeriod(options, period))
+                    .sorted(Comparator.comparingDouble((Main.OptionSet o) -> o.samplingPeriod().millis()).reversed())
+                    .collect(Collectors.toCollection(ArrayList::new)));
+        }
+        return groups.values();
+    }
+
+    private static Main.OptionSet withPeriod(Main.OptionSet options, Main.SamplingPeriod period) {
+        return new Main.OptionSet(options.benchmark(), options.sampler(), period, options.gc(), options.maxChunkSize(),
+                options.heapSize(), options.duration(), options.randomizeOrder());
+    }
+
+    private static List<String> groupKey(Main.OptionSet options) {
+        List<String> key = new ArrayList<>(options.toCSV());
+        key.remove(Main.OptionSet.toCSVHeader().indexOf("sampling period"));
+        return key;
+    }
+
+    /**
+     * Overflowed samples relative to all CPU time samples the sampler tried to take
+     */
+    static double lossRate(JFRParser.Counts counts) {
+        long all = (long) counts.validCpuTimeEvents + counts.overflowedCpuTimeEvents + counts.emptyCpuTimeEvents;
+        return all == 0 ? 0 : (double) counts.overflowedCpuTimeEvents / all;
+    }
+
+    static double emptyRate(JFRParser.Counts counts) {
+        long all = (long) counts.validCpuTimeEvents + counts.overflowedCpuTimeEvents + counts.emptyCpuTimeEvents;
+        return all == 0 ? 0 : (double) counts.emptyCpuTimeEvents / all;
+    }
+
+    /**
+     * A run of the curve
+     *
+     * @param result null if the run failed with an exception
+     */
+    private record Point(Main.OptionSet options, BenchmarkRunner.Result result) {
+    }
+
+    /**
+     * The loss-rate curve of a group of configs, the periods have to be added from the slowest to the fastest
+     */
+    static class Curve {
+        private final double maxLossRate;
+        private final List<Point> points = new ArrayList<>();
+
+        Curve(double maxLossRate) {
+            this.maxLossRate = maxLossRate;
+        }
+
+        /**
+         * @param result null if the run failed with an exception, which saturates the curve
+         */
+        void add(Main.OptionSet options, BenchmarkRunner.Result result) {
+            points.add(new Point(options, result));
+        }
+
+        private boolean isSustainable(Point point) {
+            return point.result() != null && !point.result().error() && lossRate(point.result().counts()) <= maxLossRate;
+        }
+
+        /**
+         * Whether the last period was not sustainable, faster periods don't have to be tried
+         */
+        boolean isSaturated() {
+            return !points.isEmpty() && !isSustainable(points.getLast());
+        }
+
+        /**
+         * The slowest period that isn't sustainable, empty if all periods are
+         */
+        String saturationPeriod() {
+            return points.stream().filter(p -> !isSustainable(p)).findFirst()
+                    .map(p -> p.options().samplingPeriod().toCSVValue()).orElse("");
+        }
+
+        /**
+         * One row per period
+         */
+        List<List<String>> toCSV() {
+            String saturationPeriod = saturationPeriod();
+            List<List<String>> rows = new ArrayList<>();
+            for (var point : points) {
+                var options = point.options();
+                var result = point.result();
+                if (result == null) {
+                    List<String> row = new ArrayList<>(options.toCSV());
+                    row.addAll(List.of(String.valueOf(options.samplingPeriod().millis()), "", "", "", "", "", "", "true", "false",
+                            saturationPeriod));
+                    rows.add(row);
+                    continue;
+                }
+                var counts = result.counts();
+                long expected = result.cpuTime().expectedSamples(options.sampler().cpuTimeSamplePeriodMillis(options.samplingPeriod()));
+                List<String> row = new ArrayList<>(options.toCSV());
+                row.addAll(Stream.of(options.samplingPeriod().millis(), counts.validCpuTimeEvents, counts.overflowedCpuTimeEvents,
+                        counts.emptyCpuTimeEvents, lossRate(counts), emptyRate(counts),
+                        CpuTimeTracker.CpuTime.coverage(counts.validCpuTimeEvents, expected), result.error(), isSustainable(point),
+                        saturationPeriod).map(Object::toString).toList());
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        static List<String> toCSVHeader() {
+            List<String> csv = new ArrayList<>(Main.OptionSet.toCSVHeader());
+            csv.addAll(List.of("sampling period ms", "valid cpu time events", "overflowed cpu time events", "empty cpu time events",
+                    "loss rate", "empty rate", "cpu time sample coverage", "error", "sustainable", "saturation period"));
+            return csv;
+        }
+    }
+}
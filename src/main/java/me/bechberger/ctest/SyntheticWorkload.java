@@ -0,0 +1,177 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Offline CPU-bound workload with known CPU time, started as the main class of the child JVM
+ * by {@link BenchmarkRunner.SyntheticBenchmarkRunner}
+ * <p>
+ * Every thread cycles through deterministic kernels with pure Java frames, long running native code
+ * and many short native calls, and reports the CPU time spent in each kind via a {@link WorkloadEvent}
+ * at the end, so the recording contains the ground truth for the sampler.
+ */
+public class SyntheticWorkload {
+
+    static final String EVENT_NAME = "ctest.SyntheticWorkload";
+
+    @Name(EVENT_NAME)
+    @Label("Synthetic Workload")
+    @Category("CTest")
+    @Description("CPU time spent by a synthetic workload thread")
+    @StackTrace(false)
+    static class WorkloadEvent extends Event {
+        @Label("Java CPU Time")
+        @Timespan
+        long javaCpuTime;
+
+        @Label("Native CPU Time")
+        @Timespan
+        long nativeCpuTime;
+
+        @Label("Transition CPU Time")
+        @Description("CPU time of many short native calls")
+        @Timespan
+        long transitionCpuTime;
+
+        @Label("CPU Time")
+        @Timespan
+        long cpuTime;
+    }
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    private static final byte[] DATA = createData();
+
+    private static volatile long sink;
+
+    /**
+     * Durations of all kernel cycles of all threads
+     */
+    private static final ConcurrentLinkedQueue<Long> CYCLE_NANOS = new ConcurrentLinkedQueue<>();
+
+    private static byte[] createData() {
+        byte[] data = new byte[64 * 1024];
+        long seed = 42;
+        for (int i = 0; i < data.length; i++) {
+            // linear congruential generator, low entropy so that deflate has something to do
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            data[i] = (byte) ((seed >>> 60) + 'a');
+        }
+        return data;
+    }
+
+    /**
+     * Pure Java, with a recursion to get non-trivial stack depths
+     */
+    static long javaKernel(int depth) {
+        if (depth > 0) {
+            return javaKernel(depth - 1) * 31 + depth;
+        }
+        long result = 0;
+        for (int i = 0; i < 200_000; i++) {
+            result += (result ^ i) * 0x9E3779B97F4A7C15L >>> 7;
+        }
+        return result;
+    }
+
+    /**
+     * Most of the time is spent in zlib
+     */
+    static long nativeKernel(Deflater deflater, byte[] out) {
+        deflater.reset();
+        deflater.setInput(DATA);
+        deflater.finish();
+        long result = 0;
+        while (!deflater.finished()) {
+            result += deflater.deflate(out);
+        }
+        return result;
+    }
+
+    /**
+     * Many short native calls, so that samples hit Java to native transitions
+     */
+    static long transitionKernel(Deflater deflater, byte[] out) {
+        long result = 0;
+        for (int i = 0; i < 2_000; i++) {
+            deflater.reset();
+            deflater.setInput(DATA, (i * 32) % (DATA.length - 32), 32);
+            deflater.finish();
+            result += deflater.deflate(out);
+        }
+        return result;
+    }
+
+    static void work(long endNanos) {
+        var event = new WorkloadEvent();
+        event.begin();
+        var deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] out = new byte[DATA.length];
+        long result = 0;
+        long start = THREAD_BEAN.getCurrentThreadCpuTime();
+        while (System.nanoTime() < endNanos) {
+            long cycleStart = System.nanoTime();
+            long before = THREAD_BEAN.getCurrentThreadCpuTime();
+            result += javaKernel(64);
+            long afterJava = THREAD_BEAN.getCurrentThreadCpuTime();
+            result += nativeKernel(deflater, out);
+            long afterNative = THREAD_BEAN.getCurrentThreadCpuTime();
+            result += transitionKernel(deflater, out);
+            long afterTransition = THREAD_BEAN.getCurrentThreadCpuTime();
+            event.javaCpuTime += afterJava - before;
+            event.nativeCpuTime += afterNative - afterJava;
+            event.transitionCpuTime += afterTransition - afterNative;
+            CYCLE_NANOS.add(System.nanoTime() - cycleStart);
+        }
+        event.cpuTime = THREAD_BEAN.getCurrentThreadCpuTime() - start;
+        deflater.end();
+        sink += result;
+        event.commit();
+    }
+
+    /**
+     * Usage: SyntheticWorkload threads duration_seconds [iteration_times_csv], threads=-1 for one thread per available processor
+     * <p>
+     * The optional CSV file receives the duration of every kernel cycle in the format of renaissance's {@code --csv}
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int threads = Integer.parseInt(args[0]);
+        if (threads == -1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        long durationNanos = Long.parseLong(args[1]) * 1_000_000_000L;
+        long endNanos = System.nanoTime() + durationNanos;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            var worker = new Thread(() -> work(endNanos), "synthetic-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (var worker : workers) {
+            worker.join();
+        }
+        System.out.println("Synthetic workload finished with " + threads + " threads");
+        if (args.length > 2) {
+            List<String> lines = new ArrayList<>();
+            lines.add("benchmark,duration_ns");
+            CYCLE_NANOS.forEach(nanos -> lines.add("synthetic," + nanos));
+            Files.write(Path.of(args[2]), lines);
+        }
+    }
+}
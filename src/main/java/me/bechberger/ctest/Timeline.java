@@ -0,0 +1,336 @@
+package me.bechberger.ctest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Sample counts of a run in fixed-width time buckets, together with the GC, safepoint and rotation activity
+ * in every bucket, to see what happens when the sampler produces fewer samples
+ */
+class Timeline {
+
+    /**
+     * Buckets with less valid samples than this fraction of the median are dips
+     */
+    static final double DIP_FRACTION = 0.5;
+
+    /**
+     * JFR options for the events the timeline correlates the samples with
+     */
+    static final String JFR_OPTIONS = "jdk.GarbageCollection#enabled=true,jdk.GCPhasePause#enabled=true," +
+            "jdk.SafepointBegin#enabled=true,jdk.SafepointBegin#threshold=0ms";
+
+    /**
+     * @param startEpochNanos start of the first bucket, usually the start of the run
+     */
+    record Buckets(long startEpochNanos, long widthNanos) {
+
+        /**
+         * @return -1 if the time is before the first bucket
+         */
+        int indexOf(long epochNanos) {
+            return epochNanos < startEpochNanos ? -1 : (int) ((epochNanos - startEpochNanos) / widthNanos);
+        }
+    }
+
+    private final Buckets buckets;
+    /**
+     * Index of the first bucket the arrays hold, so that the timeline of a chunk only allocates the buckets it covers
+     */
+    private int first;
+    private int[] other = new int[0];
+    private int[] valid = new int[0];
+    private int[] lost = new int[0];
+    private int[] empty = new int[0];
+    private long[] gcNanos = new long[0];
+    private long[] gcPauseNanos = new long[0];
+    private int[] safepoints = new int[0];
+    private int[] rotations = new int[0];
+    private int size;
+
+    Timeline(Buckets buckets) {
+        this.buckets = buckets;
+    }
+
+    Buckets buckets() {
+        return buckets;
+    }
+
+    /**
+     * Index after the last bucket, the buckets before the first bucket with events are empty
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Make sure the bucket exists
+     *
+     * @return the position of the bucket in the arrays, -1 if the time is before the first bucket
+     */
+    private int bucket(long epochNanos) {
+        int index = buckets.indexOf(epochNanos);
+        if (index == -1) {
+            return -1;
+        }
+        if (valid.length == 0) {
+            first = index;
+        }
+        if (index < first) {
+            // grow to the front, by at least the current length
+            resize(Math.max(0, Math.min(index, first - valid.length)), first + valid.length);
+        } else if (index >= first + valid.length) {
+            resize(first, first + Math.max(index - first + 1, valid.length * 2));
+        }
+        size = Math.max(size, index + 1);
+        return index - first;
+    }
+
+    private void resize(int newFirst, int newEnd) {
+        int shift = first - newFirst;
+        int length = newEnd - newFirst;
+        other = copy(other, shift, length);
+        valid = copy(valid, shift, length);
+        lost = copy(lost, shift, length);
+        empty = copy(empty, shift, length);
+        gcNanos = copy(gcNanos, shift, length);
+        gcPauseNanos = copy(gcPauseNanos, shift, length);
+        safepoints = copy(safepoints, shift, length);
+        rotations = copy(rotations, shift, length);
+        first = newFirst;
+    }
+
+    private static int[] copy(int[] array, int shift, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, shift, array.length);
+        return copy;
+    }
+
+    private static long[] copy(long[] array, int shift, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, shift, array.length);
+        return copy;
+    }
+
+    private int get(int[] array, int index) {
+        int position = index - first;
+        return position < 0 || position >= array.length ? 0 : array[position];
+    }
+
+    private long get(long[] array, int index) {
+        int position = index - first;
+        return position < 0 || position >= array.length ? 0 : array[position];
+    }
+
+    void addOther(long epochNanos) {
+        int position = bucket(epochNanos);
+        if (position != -1) {
+            other[position]++;
+        }
+    }
+
+    void addValid(long epochNanos) {
+        int position = bucket(epochNanos);
+        if (position != -1) {
+            valid[position]++;
+        }
+    }
+
+    void addLost(long epochNanos, int lostSamples) {
+        int position = bucket(epochNanos);
+        if (position != -1) {
+            lost[position] += lostSamples;
+        }
+    }
+
+    void addEmpty(long epochNanos) {
+        int position = bucket(epochNanos);
+        if (position != -1) {
+            empty[position]++;
+        }
+    }
+
+    void addGC(long startEpochNanos, long durationNanos) {
+        addOverlap(true, startEpochNanos, durationNanos);
+    }
+
+    void addGCPause(long startEpochNanos, long durationNanos) {
+        addOverlap(false, startEpochNanos, durationNanos);
+    }
+
+    /**
+     * Distribute the duration over the buckets the interval overlaps
+     */
+    private void addOverlap(boolean gc, long startEpochNanos, long durationNanos) {
+        long end = startEpochNanos + durationNanos;
+        if (bucket(end) == -1) {
+            return;
+        }
+        bucket(Math.max(startEpochNanos, buckets.startEpochNanos()));
+        long[] target = gc ? gcNanos : gcPauseNanos;
+        for (int index = Math.max(0, buckets.indexOf(startEpochNanos)); index <= buckets.indexOf(end); index++) {
+            long bucketStart = buckets.startEpochNanos() + index * buckets.widthNanos();
+            target[index - first] += Math.min(end, bucketStart + buckets.widthNanos()) - Math.max(startEpochNanos, bucketStart);
+        }
+    }
+
+    void addSafepoint(long epochNanos) {
+        int position = bucket(epochNanos);
+        if (position != -1) {
+            safepoints[position]++;
+        }
+    }
+
+    void addRotation(long epochNanos) {
+        int position = bucket(epochNanos);
+        if (position != -1) {
+            rotations[position]++;
+        }
+    }
+
+    void add(Timeline other) {
+        if (other.valid.length == 0) {
+            return;
+        }
+        long width = buckets.widthNanos();
+        bucket(buckets.startEpochNanos() + (long) other.first * width);
+        bucket(buckets.startEpochNanos() + (other.size() - 1L) * width);
+        for (int i = other.first; i < other.size(); i++) {
+            int from = i - other.first;
+            int to = i - first;
+            this.other[to] += other.other[from];
+            valid[to] += other.valid[from];
+            lost[to] += other.lost[from];
+            empty[to] += other.empty[from];
+            gcNanos[to] += other.gcNanos[from];
+            gcPauseNanos[to] += other.gcPauseNanos[from];
+            safepoints[to] += other.safepoints[from];
+            rotations[to] += other.rotations[from];
+        }
+    }
+
+    /**
+     * Sample counts of a set of buckets
+     */
+    record Samples(int buckets, long valid, long lost, long empty) {
+
+        double lossRate() {
+            long all = valid + lost + empty;
+            return all == 0 ? Double.NaN : (double) lost / all;
+        }
+
+        double validPerBucket() {
+            return buckets == 0 ? Double.NaN : (double) valid / buckets;
+        }
+    }
+
+    /**
+     * Sum up the samples of the selected buckets between first and last (inclusive)
+     */
+    Samples samples(int first, int last, IntPredicate selected) {
+        int buckets = 0;
+        long validSum = 0;
+        long lostSum = 0;
+        long emptySum = 0;
+        for (int i = Math.max(0, first); i <= Math.min(last, size() - 1); i++) {
+            if (selected.test(i)) {
+                buckets++;
+                validSum += get(valid, i);
+                lostSum += get(lost, i);
+                emptySum += get(empty, i);
+            }
+        }
+        return new Samples(buckets, validSum, lostSum, emptySum);
+    }
+
+    /**
+     * Attribute the samples of every bucket to the benchmark that ran in the middle of the bucket
+     */
+    void attributeTo(IterationTimes.Intervals intervals, JFRParser.BenchmarkCounts counts) {
+        if (intervals.isEmpty()) {
+            return;
+        }
+        for (int i = first; i < size(); i++) {
+            int benchmark = intervals.benchmarkAt(buckets.startEpochNanos() + i * buckets.widthNanos() + buckets.widthNanos() / 2);
+            if (benchmark != -1) {
+                counts.add(benchmark, get(other, i), get(valid, i), get(lost, i), get(empty, i));
+            }
+        }
+    }
+
+    /**
+     * Buckets between the first and the last bucket with valid samples whose number of valid samples is below
+     * {@link #DIP_FRACTION} of the median of these buckets
+     */
+    boolean[] dips() {
+        boolean[] dips = new boolean[size()];
+        int firstActive = first;
+        while (firstActive < size() && get(valid, firstActive) == 0) {
+            firstActive++;
+        }
+        int lastActive = size() - 1;
+        while (lastActive >= firstActive && get(valid, lastActive) == 0) {
+            lastActive--;
+        }
+        if (lastActive - firstActive < 2) {
+            return dips;
+        }
+        int[] active = Arrays.copyOfRange(valid, firstActive - first, lastActive - first + 1);
+        Arrays.sort(active);
+        double threshold = active[active.length / 2] * DIP_FRACTION;
+        for (int i = firstActive; i <= lastActive; i++) {
+            dips[i] = get(valid, i) < threshold;
+        }
+        return dips;
+    }
+
+    /**
+     * Number of dips, and of dips with GC activity, safepoints and recording rotations
+     */
+    List<String> toSummaryCSV() {
+        boolean[] dips = dips();
+        int dipCount = 0;
+        int withGC = 0;
+        int withSafepoints = 0;
+        int withRotations = 0;
+        for (int i = 0; i < dips.length; i++) {
+            if (dips[i]) {
+                dipCount++;
+                withGC += get(gcNanos, i) > 0 || get(gcPauseNanos, i) > 0 ? 1 : 0;
+                withSafepoints += get(safepoints, i) > 0 ? 1 : 0;
+                withRotations += get(rotations, i) > 0 ? 1 : 0;
+            }
+        }
+        return Stream.of(dipCount, withGC, withSafepoints, withRotations).map(Object::toString).toList();
+    }
+
+    static List<String> toSummaryCSVHeader() {
+        return List.of("dip buckets", "dip buckets with gc", "dip buckets with safepoints", "dip buckets with rotations");
+    }
+
+    static List<String> emptySummaryCSV() {
+        return List.of("", "", "", "");
+    }
+
+    /**
+     * One row per bucket
+     */
+    List<List<String>> toCSV() {
+        boolean[] dips = dips();
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 0; i < size(); i++) {
+            rows.add(Stream.of(i, i * buckets.widthNanos() / 1_000_000, get(other, i), get(valid, i), get(lost, i), get(empty, i),
+                    get(gcNanos, i) / 1_000_000.0, get(gcPauseNanos, i) / 1_000_000.0, get(safepoints, i), get(rotations, i), dips[i])
+                    .map(Object::toString).toList());
+        }
+        return rows;
+    }
+
+    static List<String> toCSVHeader() {
+        return List.of("bucket", "bucket start ms", "other sampler events", "valid cpu time events", "overflowed cpu time events", "empty cpu time events",
+                "gc ms", "gc pause ms", "safepoints", "rotations", "dip");
+    }
+}
@@ -0,0 +1,118 @@
+package me.bechberger.ctest;
+
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reading an archive has to yield the same counts as parsing the archived recordings
+ */
+class ArchiveTest {
+
+    @TempDir
+    Path folder;
+
+    private static volatile long sink;
+
+    private static long work(int depth) {
+        if (depth > 0) {
+            return work(depth - 1) * 31 + depth;
+        }
+        long result = 0;
+        for (int i = 0; i < 100_000; i++) {
+            result += (result ^ i) * 0x9E3779B97F4A7C15L >>> 7;
+        }
+        return result;
+    }
+
+    /**
+     * Record the samplers of the JDK while a few threads run recursive code with different stack depths
+     */
+    private Path record(String name) throws IOException, InterruptedException {
+        Path file = folder.resolve(name + ".jfr");
+        try (var recording = new Recording()) {
+            recording.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(1));
+            recording.enable("jdk.NativeMethodSample").withPeriod(Duration.ofMillis(1));
+            recording.enable("jdk.CPUTimeSample").with("throttle", "1ms");
+            recording.start();
+            long end = System.nanoTime() + 500_000_000L;
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int depth = 10 + i * 20;
+                var thread = new Thread(() -> {
+                    while (System.nanoTime() < end) {
+                        sink += work(depth);
+                    }
+                }, "archive-test-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (var thread : threads) {
+                thread.join();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        return file;
+    }
+
+    private static void assertSameCounts(JFRParser.Counts expected, JFRParser.Counts actual) {
+        assertEquals(expected.otherSamplerEvents, actual.otherSamplerEvents);
+        assertEquals(expected.validCpuTimeEvents, actual.validCpuTimeEvents);
+        assertEquals(expected.overflowedCpuTimeEvents, actual.overflowedCpuTimeEvents);
+        assertEquals(expected.emptyCpuTimeEvents, actual.emptyCpuTimeEvents);
+        assertEquals(expected.unresolvedFrameCpuTimeEvents, actual.unresolvedFrameCpuTimeEvents);
+        assertEquals(expected.events, actual.events);
+        assertEquals(expected.workloadCpuTimeNanos, actual.workloadCpuTimeNanos);
+        assertEquals(expected.files, actual.files);
+        assertEquals(expected.erroneousFiles, actual.erroneousFiles);
+        assertEquals(expected.stackComparison().toCSV(), actual.stackComparison().toCSV());
+        assertEquals(expected.otherSamplerStacks.meanDepth(), actual.otherSamplerStacks.meanDepth(), 1e-9);
+    }
+
+    private static JFRParser parser() {
+        return new JFRParser(IterationTimes.Intervals.NONE, true, null, null);
+    }
+
+    @Test
+    void readingTheArchiveYieldsTheParsedCounts() throws IOException, InterruptedException {
+        List<Path> recordings = List.of(record("first"), record("second"));
+        Path archive = folder.resolve("run" + Archive.EXTENSION);
+        try (var writer = new Archive.Writer(archive)) {
+            for (var recording : recordings) {
+                writer.add(recording);
+            }
+        }
+        var parsed = parser().parseAll(recordings);
+        assertTrue(parsed.otherSamplerEvents > 0, parsed.toString());
+        assertSameCounts(parsed, Archive.read(archive, parser()));
+    }
+
+    @Test
+    void multiChunkRecordingsAreArchivedPerChunk() throws IOException, InterruptedException {
+        // concatenated recordings are a valid recording with one chunk per part, parsed chunk by chunk
+        Path recording = record("chunks");
+        byte[] chunk = Files.readAllBytes(recording);
+        Files.write(recording, chunk, StandardOpenOption.APPEND);
+        Files.write(recording, chunk, StandardOpenOption.APPEND);
+        assertEquals(3, JFRParser.chunks(recording).size());
+        Path archive = folder.resolve("chunks" + Archive.EXTENSION);
+        try (var writer = new Archive.Writer(archive)) {
+            writer.add(recording);
+        }
+        var parsed = parser().parseAll(List.of(recording));
+        assertEquals(1, parsed.files);
+        assertSameCounts(parsed, Archive.read(archive, parser()));
+    }
+}
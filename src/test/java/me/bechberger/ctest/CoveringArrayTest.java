@@ -0,0 +1,55 @@
+package me.bechberger.ctest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every pair of values of every two dimensions has to occur in a row, with fewer rows than the full product
+ */
+class CoveringArrayTest {
+
+    private static void assertPairwiseCovered(int[] sizes, List<int[]> rows) {
+        for (int a = 0; a < sizes.length; a++) {
+            for (int b = a + 1; b < sizes.length; b++) {
+                Set<List<Integer>> pairs = new HashSet<>();
+                for (int[] row : rows) {
+                    assertTrue(row[a] >= 0 && row[a] < sizes[a] && row[b] >= 0 && row[b] < sizes[b]);
+                    pairs.add(List.of(row[a], row[b]));
+                }
+                assertEquals(sizes[a] * sizes[b], pairs.size(), "dimensions " + a + " and " + b);
+            }
+        }
+    }
+
+    @Test
+    void coversAllPairs() {
+        int[] sizes = {3, 4, 2, 5, 3, 2, 4};
+        for (long seed = 0; seed < 5; seed++) {
+            var rows = CoveringArray.generate(sizes, 2, seed);
+            assertPairwiseCovered(sizes, rows);
+            assertTrue(rows.size() < CoveringArray.product(sizes).size(), rows.size() + " rows");
+        }
+    }
+
+    @Test
+    void manyBinaryDimensionsNeedFewRows() {
+        int[] sizes = {2, 2, 2, 2, 2, 2, 2, 2, 2, 2};
+        var rows = CoveringArray.generate(sizes, 2, 42);
+        assertPairwiseCovered(sizes, rows);
+        // 6 rows suffice for 10 binary dimensions, the greedy construction shouldn't be far off
+        assertTrue(rows.size() >= 4 && rows.size() <= 10, rows.size() + " rows");
+    }
+
+    @Test
+    void strengthOfAllDimensionsIsTheProduct() {
+        int[] sizes = {2, 3, 2};
+        assertEquals(12, CoveringArray.generate(sizes, 3, 0).size());
+        assertEquals(0, CoveringArray.generate(new int[]{2, 0, 3}, 2, 0).size());
+    }
+}
@@ -0,0 +1,65 @@
+package me.bechberger.ctest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every value has to land in the bucket whose range contains it, with a relative error below 1/32
+ */
+class PauseHistogramsTest {
+
+    @Test
+    void smallValuesAreExact() {
+        for (long nanos = 0; nanos < 64; nanos++) {
+            int index = PauseHistograms.Histogram.indexOf(nanos);
+            assertEquals(nanos, index);
+            assertEquals(nanos, PauseHistograms.Histogram.valueOf(index));
+        }
+    }
+
+    @Test
+    void bucketsAreContiguousAndContainTheirValues() {
+        long previousMax = -1;
+        for (int index = 0; index < 64 + 20 * 32; index++) {
+            long max = PauseHistograms.Histogram.valueOf(index);
+            assertEquals(index, PauseHistograms.Histogram.indexOf(previousMax + 1), "first value of bucket " + index);
+            assertEquals(index, PauseHistograms.Histogram.indexOf(max), "last value of bucket " + index);
+            previousMax = max;
+        }
+    }
+
+    @Test
+    void relativeErrorIsBelowOneThirtySecond() {
+        for (long nanos = 64; nanos < Long.MAX_VALUE / 3 && nanos > 0; nanos = nanos * 3 + 7) {
+            long upper = PauseHistograms.Histogram.valueOf(PauseHistograms.Histogram.indexOf(nanos));
+            assertTrue(upper >= nanos, nanos + " above " + upper);
+            assertTrue(upper - nanos < nanos / 32.0, nanos + " in bucket up to " + upper);
+        }
+        long max = Long.MAX_VALUE;
+        assertEquals(max, PauseHistograms.Histogram.valueOf(PauseHistograms.Histogram.indexOf(max)));
+    }
+
+    @Test
+    void percentilesOfMergedHistograms() {
+        var first = new PauseHistograms();
+        var second = new PauseHistograms();
+        for (long nanos = 1; nanos <= 50; nanos++) {
+            first.record(PauseHistograms.Kind.GC_PAUSE, nanos);
+            second.record(PauseHistograms.Kind.GC_PAUSE, nanos + 50);
+        }
+        second.record(PauseHistograms.Kind.SAFEPOINT_SYNCHRONIZATION, 1_000_000);
+        first.add(second);
+        var gc = first.histogram(PauseHistograms.Kind.GC_PAUSE);
+        assertEquals(100, gc.count());
+        assertEquals(100, gc.max());
+        assertEquals(50, gc.percentile(0.5));
+        assertEquals(100, gc.percentile(1));
+        var safepoints = first.histogram(PauseHistograms.Kind.SAFEPOINT_SYNCHRONIZATION);
+        assertEquals(1, safepoints.count());
+        // the upper bound of the bucket is capped at the maximum
+        assertEquals(1_000_000, safepoints.percentile(0.99));
+        assertEquals(0, first.histogram(PauseHistograms.Kind.VM_OPERATION).percentile(0.5));
+    }
+}
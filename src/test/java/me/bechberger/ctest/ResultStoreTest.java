@@ -0,0 +1,95 @@
+package me.bechberger.ctest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A crash can tear the last record of the store, which has to be cut off when the store is opened again
+ */
+class ResultStoreTest {
+
+    @TempDir
+    Path folder;
+
+    private static ResultStore.Entry entry(String campaign, String benchmark) {
+        List<String> key = List.of(benchmark, Main.Sampler.values()[0].toCSVValue(), "1ms", "G1", "1m", "1g", "10s", "java");
+        List<String> row = new ArrayList<>(key);
+        row.add("10");
+        return new ResultStore.Entry(campaign, key, 10, false, false, true, false, false, row);
+    }
+
+    private static List<ResultStore.Entry> readAll(Path file) throws IOException {
+        List<ResultStore.Entry> entries = new ArrayList<>();
+        ResultStore.read(file, entries::add);
+        return entries;
+    }
+
+    private Path storeWith(ResultStore.Entry... entries) throws IOException {
+        Path file = folder.resolve("results.bin");
+        try (var store = ResultStore.open(file)) {
+            for (var entry : entries) {
+                store.append(entry);
+            }
+        }
+        return file;
+    }
+
+    @Test
+    void tornRecordIsCutOff() throws IOException {
+        var first = entry("c", "a");
+        var second = entry("c", "b");
+        Path file = storeWith(first, second);
+        long intactLength = Files.size(file);
+        storeWith(entry("c", "torn"));
+        // cut the last record in the middle, as a crash while appending would
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(intactLength + (Files.size(file) - intactLength) / 2);
+        }
+        assertEquals(intactLength, ResultStore.read(file, entry -> {
+        }));
+        try (var store = ResultStore.open(file)) {
+            assertEquals(intactLength, Files.size(file));
+            assertEquals(1, store.completedRuns("c", first.key()));
+            assertEquals(0, store.completedRuns("c", entry("c", "torn").key()));
+            store.append(entry("c", "c"));
+        }
+        assertEquals(List.of(first, second, entry("c", "c")), readAll(file));
+    }
+
+    @Test
+    void recordWithWrongChecksumIsRejected() throws IOException {
+        var first = entry("c", "a");
+        Path file = storeWith(first);
+        long intactLength = Files.size(file);
+        storeWith(entry("c", "corrupt"));
+        byte[] bytes = Files.readAllBytes(file);
+        // flip a bit in the payload of the second record, after its length and checksum
+        bytes[(int) intactLength + 8 + 2] ^= 1;
+        Files.write(file, bytes);
+        assertEquals(List.of(first), readAll(file));
+        try (var store = ResultStore.open(file)) {
+            assertEquals(intactLength, Files.size(file));
+            assertEquals(1, store.completedRuns("c", first.key()));
+        }
+    }
+
+    @Test
+    void completedRunsArePerCampaign() throws IOException {
+        Path file = storeWith(entry("c", "a"), entry("c", "a"), entry("d", "a"));
+        try (var store = ResultStore.open(file)) {
+            assertEquals(2, store.completedRuns("c", entry("c", "a").key()));
+            assertEquals(1, store.completedRuns("d", entry("d", "a").key()));
+            assertEquals(3, store.stats(entry("c", "a").key()).runs());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package me.bechberger.ctest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rates are per thread, so they have to be passed as periods to the CPU time sampler,
+ * which reads a throttle like "1000/s" as a rate of the whole process
+ */
+class SamplingPeriodTest {
+
+    @Test
+    void rateIsPassedAsPeriodToBothSamplers() {
+        var period = new Main.SamplingPeriod("2000hz");
+        assertEquals("500000ns", period.throttle());
+        assertEquals("500000ns", period.period());
+        assertEquals(0.5, period.millis(), 1e-9);
+        String config = Main.Sampler.WITH_OTHER_SAMPLER.config(period);
+        assertTrue(config.contains("jdk.CPUTimeSample#throttle=500000ns"), config);
+        assertTrue(config.contains("jdk.ExecutionSample#period=500000ns"), config);
+        assertFalse(config.contains("/s"), config);
+    }
+
+    @Test
+    void bothSamplersHaveTheSamePeriodPerThread() {
+        for (var value : new String[]{"1000hz", "3000hz", "1ms", "100us"}) {
+            var period = new Main.SamplingPeriod(value);
+            var sampler = Main.Sampler.WITH_OTHER_SAMPLER;
+            assertEquals(period.millis(), sampler.cpuTimeSamplePeriodMillis(period), 1e-9, value);
+            assertEquals(period.millis(), sampler.otherSamplerPeriodMillis(period), 1e-9, value);
+        }
+    }
+
+    @Test
+    void ratesAndPeriodsAreOrderedByTheirPeriodPerThread() {
+        assertEquals(new Main.SamplingPeriod("1ms").millis(), new Main.SamplingPeriod("1000hz").millis(), 1e-9);
+        assertTrue(new Main.SamplingPeriod("2000hz").millis() < new Main.SamplingPeriod("1ms").millis());
+        assertEquals(0, Main.Sampler.OTHER_SAMPLER.cpuTimeSamplePeriodMillis(new Main.SamplingPeriod("1000hz")));
+    }
+
+    @Test
+    void processWideThrottlesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new Main.SamplingPeriod("1000/s"));
+        assertThrows(IllegalArgumentException.class, () -> new Main.SamplingPeriod("0hz"));
+        assertThrows(IllegalArgumentException.class, () -> new Main.SamplingPeriod("10"));
+    }
+}
@@ -0,0 +1,58 @@
+package me.bechberger.ctest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The tests of the overhead and A/B reports against textbook examples
+ */
+class StatisticsTest {
+
+    private static final double[] A = {19.8, 20.4, 19.6, 17.8, 18.5, 18.9, 18.3, 18.9, 19.5, 22.0};
+    private static final double[] B = {28.2, 26.6, 20.1, 23.3, 25.2, 22.1, 17.7, 27.6, 20.6, 13.7,
+            23.2, 17.5, 20.6, 18.0, 23.9, 21.6, 24.3, 20.4, 23.9, 13.3};
+
+    @Test
+    void welchOfSamplesWithDifferentVariances() {
+        var welch = Statistics.welch(A, B);
+        assertEquals(-2.22, welch.difference(), 1e-9);
+        assertEquals(0.997523, welch.standardError(), 1e-6);
+        assertEquals(24.5246, welch.degreesOfFreedom(), 1e-4);
+        assertEquals(-2.22551, welch.t(), 1e-5);
+        assertEquals(0.035485, welch.pValue(), 1e-5);
+        double[] interval = welch.confidenceInterval(0.95);
+        assertTrue(interval[0] < welch.difference() && welch.difference() < interval[1]);
+        assertEquals(welch.difference(), (interval[0] + interval[1]) / 2, 1e-9);
+        // the interval excludes 0 exactly if p < 0.05
+        assertTrue(interval[1] < 0);
+    }
+
+    @Test
+    void tDistribution() {
+        // the t-distribution with one degree of freedom is the Cauchy distribution
+        assertEquals(0.75, Statistics.tCdf(1, 1), 1e-9);
+        assertEquals(0.5, Statistics.tCdf(0, 7), 1e-12);
+        assertEquals(2.228139, Statistics.tQuantile(0.975, 10), 1e-5);
+        assertEquals(0.975, Statistics.tCdf(2.228139, 10), 1e-6);
+        assertEquals(1.959964, Statistics.tQuantile(0.975, 1e7), 1e-4);
+    }
+
+    @Test
+    void hedgesG() {
+        assertEquals(-0.623446, Statistics.hedgesG(A, B), 1e-6);
+        assertEquals(0.623446, Statistics.hedgesG(B, A), 1e-6);
+        assertTrue(Double.isNaN(Statistics.hedgesG(new double[]{1}, B)));
+        assertTrue(Double.isNaN(Statistics.hedgesG(new double[]{1, 1}, new double[]{1, 1, 1})));
+    }
+
+    @Test
+    void fisherExact() {
+        // the lady tasting tea: 3 of 4 cups right
+        assertEquals(34.0 / 70, Statistics.fisherExact(3, 4, 1, 4), 1e-9);
+        assertEquals(2.0 / 70, Statistics.fisherExact(4, 4, 0, 4), 1e-9);
+        assertEquals(1, Statistics.fisherExact(2, 4, 2, 4), 1e-9);
+        assertEquals(1, Statistics.fisherExact(0, 10, 0, 10), 1e-9);
+    }
+}
@@ -0,0 +1,86 @@
+package me.bechberger.ctest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The timeline of a chunk only holds the buckets from its first event on, merging has to shift them by their offset
+ */
+class TimelineTest {
+
+    private static final Timeline.Buckets BUCKETS = new Timeline.Buckets(1_000_000_000L, 1_000_000);
+
+    /**
+     * The middle of the bucket
+     */
+    private static long at(int bucket) {
+        return BUCKETS.startEpochNanos() + bucket * BUCKETS.widthNanos() + BUCKETS.widthNanos() / 2;
+    }
+
+    private static void addSamples(Timeline timeline, int bucket, int valid) {
+        for (int i = 0; i < valid; i++) {
+            timeline.addValid(at(bucket));
+        }
+        timeline.addOther(at(bucket));
+        timeline.addLost(at(bucket), bucket);
+    }
+
+    @Test
+    void mergedChunksEqualTheTimelineOfAllEvents() {
+        var all = new Timeline(BUCKETS);
+        var early = new Timeline(BUCKETS);
+        var middle = new Timeline(BUCKETS);
+        var late = new Timeline(BUCKETS);
+        for (int bucket : new int[]{2, 3}) {
+            addSamples(early, bucket, 5);
+            addSamples(all, bucket, 5);
+        }
+        for (int bucket : new int[]{10, 11, 12}) {
+            addSamples(middle, bucket, bucket);
+            addSamples(all, bucket, bucket);
+        }
+        // grows the arrays of the chunk to the front
+        addSamples(middle, 7, 1);
+        addSamples(all, 7, 1);
+        addSamples(late, 40, 3);
+        addSamples(all, 40, 3);
+        late.addSafepoint(at(40));
+        all.addSafepoint(at(40));
+        for (var order : List.of(List.of(early, middle, late), List.of(late, middle, early), List.of(middle, late, early))) {
+            var merged = new Timeline(BUCKETS);
+            order.forEach(merged::add);
+            assertEquals(all.size(), merged.size());
+            assertEquals(41, merged.size());
+            assertEquals(all.toCSV(), merged.toCSV());
+            assertEquals(new Timeline.Samples(3, 10 + 11 + 12, 10 + 11 + 12, 0), merged.samples(10, 12, i -> true));
+        }
+    }
+
+    @Test
+    void emptyTimelinesAndEventsBeforeTheStartAreIgnored() {
+        var timeline = new Timeline(BUCKETS);
+        timeline.addValid(BUCKETS.startEpochNanos() - 1);
+        assertEquals(0, timeline.size());
+        addSamples(timeline, 5, 2);
+        timeline.add(new Timeline(BUCKETS));
+        assertEquals(6, timeline.size());
+        assertEquals(new Timeline.Samples(6, 2, 5, 0), timeline.samples(0, 5, i -> true));
+    }
+
+    @Test
+    void gcTimeIsDistributedOverTheOverlappedBuckets() {
+        var timeline = new Timeline(BUCKETS);
+        long width = BUCKETS.widthNanos();
+        // from the middle of bucket 1 to the middle of bucket 3
+        timeline.addGC(at(1), 2 * width);
+        var rows = timeline.toCSV();
+        int gcColumn = Timeline.toCSVHeader().indexOf("gc ms");
+        assertEquals(List.of("0.0", "0.5", "1.0", "0.5"), rows.stream().map(row -> row.get(gcColumn)).toList());
+        var merged = new Timeline(BUCKETS);
+        merged.add(timeline);
+        assertEquals(rows, merged.toCSV());
+    }
+}